@@ -0,0 +1,184 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.analysis;
+
+import lombok.Getter;
+import lombok.NonNull;
+import me.darksidecode.jminima.JMinima;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/*
+ * A directory of cached entries (one file per key), limited in total size. Least recently used entries are
+ * evicted first - the order of use is kept in modification times of files, so it survives restarts.
+ * Files are written to temporary files first, and then moved, so concurrent processes never read partial files.
+ */
+public class AnalysisCache {
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("[A-Za-z0-9._-]+");
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path dir;
+
+    private final long maxSize;
+
+    private final Map<String, Long> index = new LinkedHashMap<>(16, 0.75f, true); // key -> size, LRU first
+
+    private long size;
+
+    @Getter
+    private final CacheStatistics statistics = new CacheStatistics();
+
+    public AnalysisCache(@NonNull File dir, long maxSize) throws IOException {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("max size cannot be negative");
+
+        this.dir = dir.toPath();
+        this.maxSize = maxSize;
+
+        Files.createDirectories(this.dir);
+        load();
+    }
+
+    public synchronized byte[] get(@NonNull String key) {
+        checkKey(key);
+
+        if (index.get(key) == null) { // makes the entry the most recently used one
+            statistics.miss();
+            return null;
+        }
+
+        Path file = dir.resolve(key);
+
+        try {
+            byte[] data = Files.readAllBytes(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            statistics.hit();
+
+            return data;
+        } catch (IOException ex) {
+            // Deleted or corrupted by someone else - forget about it.
+            if (JMinima.debug) ex.printStackTrace();
+            size -= index.remove(key);
+            statistics.miss();
+
+            return null;
+        }
+    }
+
+    public synchronized void put(@NonNull String key, @NonNull byte[] data) throws IOException {
+        checkKey(key);
+
+        if (data.length > maxSize)
+            return; // would evict everything else and itself
+
+        Path file = dir.resolve(key);
+        Path tempFile = Files.createTempFile(dir, key, TEMP_SUFFIX);
+
+        try {
+            Files.write(tempFile, data);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+
+        Long previousSize = index.put(key, (long) data.length);
+        size += data.length - (previousSize != null ? previousSize : 0);
+        statistics.put();
+        evict();
+    }
+
+    public void bypass() {
+        // Counts a result that is not looked up at all, e.g. of a class that has been disassembled already.
+        statistics.bypassed();
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntries() {
+        return index.size();
+    }
+
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        Map<Path, FileTime> times = new LinkedHashMap<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+
+                if (name.endsWith(TEMP_SUFFIX))
+                    Files.deleteIfExists(file); // left by a crashed process
+                else if (KEY_PATTERN.matcher(name).matches() && Files.isRegularFile(file)) {
+                    files.add(file);
+                    times.put(file, Files.getLastModifiedTime(file));
+                }
+            }
+        }
+
+        files.sort(Comparator.comparing(times::get));
+
+        for (Path file : files) {
+            long fileSize = Files.size(file);
+            index.put(file.getFileName().toString(), fileSize);
+            size += fileSize;
+        }
+
+        evict();
+    }
+
+    private void evict() throws IOException {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+
+            try {
+                Files.delete(dir.resolve(eldest.getKey()));
+            } catch (NoSuchFileException ignored) {
+                // Already evicted by someone else.
+            }
+
+            size -= eldest.getValue();
+            it.remove();
+            statistics.evicted();
+        }
+    }
+
+    private static void checkKey(String key) {
+        if (!KEY_PATTERN.matcher(key).matches() || key.endsWith(TEMP_SUFFIX))
+            throw new IllegalArgumentException("invalid cache key: " + key);
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.analysis;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters of an AnalysisCache. Thread-safe.
+public class CacheStatistics {
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder puts = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder bypasses = new LongAdder();
+
+    void hit() {
+        hits.increment();
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    void put() {
+        puts.increment();
+    }
+
+    void evicted() {
+        evictions.increment();
+    }
+
+    void bypassed() {
+        bypasses.increment();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getPuts() {
+        return puts.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getBypasses() {
+        return bypasses.sum();
+    }
+
+    public double getHitRate() {
+        long hits = getHits();
+        long lookups = hits + getMisses();
+
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        puts.reset();
+        evictions.reset();
+        bypasses.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "hits: " + getHits() + ", misses: " + getMisses()
+                + String.format(" (hit rate %.1f%%)", getHitRate() * 100.0)
+                + ", puts: " + getPuts() + ", evictions: " + getEvictions() + ", bypasses: " + getBypasses();
+    }
+
+}
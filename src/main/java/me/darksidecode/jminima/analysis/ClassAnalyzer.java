@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.analysis;
+
+import lombok.NonNull;
+import me.darksidecode.jminima.disassembling.ClassDetail;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.util.Set;
+
+/*
+ * Computes a result for each class (e.g. a summary of its references). Results must only depend on the class
+ * itself, as they are cached by the contents of classes (see AnalyzeClassesPhase and AnalysisCache).
+ */
+public interface ClassAnalyzer<R> {
+
+    // Identifies the analyzer in cache keys; must be changed whenever results of the analyzer change.
+    String getId();
+
+    R analyze(@NonNull ClassNode cls) throws Exception;
+
+    byte[] serialize(@NonNull R result) throws IOException;
+
+    R deserialize(@NonNull byte[] data) throws IOException;
+
+    default Set<ClassDetail> getRequiredClassDetails() {
+        return ClassDetail.ALL;
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.disassembling;
+
+import lombok.NonNull;
+import org.objectweb.asm.ClassReader;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/*
+ * Optional parts of classes that phases may need. When classes are disassembled in a Workflow, only the
+ * details required by subsequent phases are read, which makes disassembling much cheaper for phases that
+ * only look at class headers, annotations or method signatures.
+ */
+public enum ClassDetail {
+
+    CODE,   // instructions, try-catch blocks, max. stack and locals of methods
+    DEBUG,  // source file, line numbers and local variables
+    FRAMES; // stack map frames of methods (expanded; only read along with CODE)
+
+    public static final Set<ClassDetail> ALL = Collections.unmodifiableSet(EnumSet.allOf(ClassDetail.class));
+
+    public static final Set<ClassDetail> NONE = Collections.unmodifiableSet(EnumSet.noneOf(ClassDetail.class));
+
+    public static int readerFlags(@NonNull Set<ClassDetail> details) {
+        int flags = 0;
+
+        if (!details.contains(CODE))
+            flags |= ClassReader.SKIP_CODE;
+
+        if (!details.contains(DEBUG))
+            flags |= ClassReader.SKIP_DEBUG;
+
+        if (!details.contains(FRAMES))
+            flags |= ClassReader.SKIP_FRAMES;
+        else if (details.contains(CODE))
+            flags |= ClassReader.EXPAND_FRAMES;
+
+        return flags;
+    }
+
+}
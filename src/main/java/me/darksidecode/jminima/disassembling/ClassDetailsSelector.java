@@ -0,0 +1,29 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.disassembling;
+
+import lombok.NonNull;
+
+import java.util.Set;
+
+// Phases that disassemble classes, and thus can skip details of classes that no subsequent phase needs.
+public interface ClassDetailsSelector {
+
+    // Called by Workflow right before execution, with details required by all phases that follow.
+    void selectClassDetails(@NonNull Set<ClassDetail> details);
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.disassembling;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Basic information about a class, available without disassembling the whole class.
+@Getter
+@RequiredArgsConstructor
+public class ClassHeader {
+
+    private final int access;
+
+    @NonNull
+    private final String name;
+
+    private final String superName; // null = java/lang/Object (or module-info)
+
+    @NonNull
+    private final List<String> interfaces;
+
+    public static ClassHeader of(@NonNull ClassReader reader) {
+        // ClassReader only reads the constant pool and the header on creation.
+        return new ClassHeader(reader.getAccess(), reader.getClassName(), reader.getSuperName(),
+                Collections.unmodifiableList(Arrays.asList(reader.getInterfaces())));
+    }
+
+    public static ClassHeader of(@NonNull ClassNode cls) {
+        return new ClassHeader(cls.access, cls.name, cls.superName, cls.interfaces != null
+                ? Collections.unmodifiableList(cls.interfaces) : Collections.emptyList());
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.disassembling;
+
+import lombok.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Selects classes to disassemble by scanning their raw constant pools, before anything is parsed.
+ * Classes that do not match are not disassembled, and thus are saved as they were.
+ *
+ * A class matches if its constant pool contains all constants of any group added with anyOf/allOf.
+ * Owners, member names, descriptors and string literals referenced by a class are all stored as
+ * Utf8 constants, so e.g. allOf("com/acme/Foo", "bar") matches (at least) all classes that call
+ * Foo#bar. Matching is conservative: classes that cannot be scanned always match.
+ */
+public class ConstantPoolFilter {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private final List<byte[]> constants = new ArrayList<>(); // in modified UTF-8, as in class files
+
+    private final List<List<String>> groupConstants = new ArrayList<>(); // as given, to describe groups
+
+    private final List<int[]> groups = new ArrayList<>(); // indexes of constants that must all be present
+
+    public ConstantPoolFilter anyOf(@NonNull String... constants) {
+        for (String constant : constants)
+            allOf(constant);
+
+        return this;
+    }
+
+    public ConstantPoolFilter allOf(@NonNull String... constants) {
+        if (constants.length == 0)
+            throw new IllegalArgumentException("constants cannot be empty");
+
+        int[] group = new int[constants.length];
+
+        for (int i = 0; i < constants.length; i++) {
+            group[i] = this.constants.size();
+            this.constants.add(encode(constants[i]));
+        }
+
+        groups.add(group);
+        groupConstants.add(Arrays.asList(constants.clone()));
+
+        return this;
+    }
+
+    public String getConfiguration() {
+        return groupConstants.toString();
+    }
+
+    public boolean accepts(@NonNull byte[] classBytes, int length) {
+        if (groups.isEmpty())
+            return true;
+
+        try {
+            return scan(classBytes, length);
+        } catch (IndexOutOfBoundsException ex) {
+            return true; // truncated class - let the disassembler report it
+        }
+    }
+
+    private boolean scan(byte[] bytes, int length) {
+        if (length < 10 || readInt(bytes, 0) != MAGIC)
+            return true;
+
+        int count = readShort(bytes, 8);
+        int offset = 10;
+        boolean[] found = new boolean[constants.size()];
+
+        for (int i = 1; i < count; i++) {
+            if (offset >= length)
+                return true; // truncated constant pool (the buffer may be longer than the class)
+
+            int tag = bytes[offset] & 0xFF;
+
+            switch (tag) {
+                case 1: // Utf8
+                    int len = readShort(bytes, offset + 1);
+
+                    if (offset + 3 + len > length)
+                        return true;
+
+                    if (match(bytes, offset + 3, len, found))
+                        return true;
+
+                    offset += 3 + len;
+                    break;
+
+                case 3: case 4: // Integer, Float
+                case 9: case 10: case 11: case 12: // Fieldref, Methodref, InterfaceMethodref, NameAndType
+                case 17: case 18: // Dynamic, InvokeDynamic
+                    offset += 5;
+                    break;
+
+                case 5: case 6: // Long, Double (take two slots)
+                    offset += 9;
+                    i++;
+                    break;
+
+                case 7: case 8: case 16: case 19: case 20: // Class, String, MethodType, Module, Package
+                    offset += 3;
+                    break;
+
+                case 15: // MethodHandle
+                    offset += 4;
+                    break;
+
+                default:
+                    return true; // unknown constant type (newer class file version?)
+            }
+        }
+
+        return false;
+    }
+
+    private boolean match(byte[] bytes, int offset, int len, boolean[] found) {
+        boolean anyFound = false;
+
+        for (int i = 0; i < found.length; i++) {
+            if (!found[i]) {
+                byte[] constant = constants.get(i);
+
+                if (constant.length == len && equals(constant, bytes, offset))
+                    anyFound = found[i] = true;
+            }
+        }
+
+        if (anyFound) {
+            outer:
+            for (int[] group : groups) {
+                for (int index : group)
+                    if (!found[index])
+                        continue outer;
+
+                return true; // the whole group is present
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean equals(byte[] constant, byte[] bytes, int offset) {
+        for (int i = 0; i < constant.length; i++)
+            if (constant[i] != bytes[offset + i])
+                return false;
+
+        return true;
+    }
+
+    private static byte[] encode(String constant) {
+        // DataOutputStream writes modified UTF-8, prefixed with the length (2 bytes), exactly as class files.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(constant.length() + 2);
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(constant);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // too long for a class file
+        }
+
+        byte[] encoded = bytes.toByteArray();
+        return Arrays.copyOfRange(encoded, 2, encoded.length);
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 8 | bytes[offset + 1] & 0xFF;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return readShort(bytes, offset) << 16 | readShort(bytes, offset + 2);
+    }
+
+}
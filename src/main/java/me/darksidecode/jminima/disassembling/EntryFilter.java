@@ -0,0 +1,131 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.disassembling;
+
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.jar.JarEntry;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/*
+ * Selects jar entries to disassemble, judging only by their central directory records (name and size),
+ * so entries that are filtered out are never read. Filtered out classes are not disassembled, and thus
+ * are saved as they were (like any other unmodified entries).
+ *
+ * Globs are matched against entry names: "*" and "?" do not match "/", while "**" does (e.g. "com/acme/**").
+ */
+public class EntryFilter {
+
+    private final List<Pattern> includes = new ArrayList<>(); // empty = include everything
+
+    private final List<Pattern> excludes = new ArrayList<>();
+
+    private final List<Predicate<? super JarEntry>> predicates = new ArrayList<>();
+
+    private long maxSize = -1; // -1 = no limit
+
+    public EntryFilter include(@NonNull String... globs) {
+        for (String glob : globs)
+            includes.add(compileGlob(glob));
+
+        return this;
+    }
+
+    public EntryFilter exclude(@NonNull String... globs) {
+        for (String glob : globs)
+            excludes.add(compileGlob(glob));
+
+        return this;
+    }
+
+    public EntryFilter matching(@NonNull Predicate<? super JarEntry> predicate) {
+        predicates.add(predicate);
+        return this;
+    }
+
+    public EntryFilter maxSize(long maxSize) {
+        // Skip entries larger than the given (uncompressed) size. Entries of unknown size are not skipped.
+        if (maxSize < 0)
+            throw new IllegalArgumentException("max size cannot be negative");
+
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    public String getConfiguration() {
+        // Globs are described as the patterns they are compiled to (null = predicates, which cannot be described).
+        if (!predicates.isEmpty())
+            return null;
+
+        return "include " + patternsOf(includes) + " exclude " + patternsOf(excludes)
+                + (maxSize != -1 ? " maxSize " + maxSize : "");
+    }
+
+    public boolean accepts(@NonNull JarEntry entry) {
+        String name = entry.getName();
+
+        if (maxSize != -1 && entry.getSize() > maxSize)
+            return false;
+
+        if (!includes.isEmpty() && includes.stream().noneMatch(glob -> glob.matcher(name).matches()))
+            return false;
+
+        if (excludes.stream().anyMatch(glob -> glob.matcher(name).matches()))
+            return false;
+
+        for (Predicate<? super JarEntry> predicate : predicates)
+            if (!predicate.test(entry))
+                return false;
+
+        return true;
+    }
+
+    private static List<String> patternsOf(List<Pattern> globs) {
+        return globs.stream().map(Pattern::pattern).collect(Collectors.toList());
+    }
+
+    static Pattern compileGlob(@NonNull String glob) {
+        StringBuilder regex = new StringBuilder();
+        int i = 0;
+
+        while (i < glob.length()) {
+            char c = glob.charAt(i);
+
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i += 2;
+                continue;
+            }
+
+            if (c == '*')
+                regex.append("[^/]*");
+            else if (c == '?')
+                regex.append("[^/]");
+            else
+                regex.append(Pattern.quote(String.valueOf(c)));
+
+            i++;
+        }
+
+        return Pattern.compile(regex.toString());
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.disassembling;
+
+import lombok.NonNull;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+// Reads all Utf8 constants of a class through the given StringPool (each constant is interned once).
+// Signatures of methods are read bypassing readUTF8, so they are interned separately (see internMethodSignatures).
+class InterningClassReader extends ClassReader {
+
+    private final StringPool stringPool;
+
+    private final String[] interned; // constant pool index -> interned string
+
+    InterningClassReader(byte[] classBytes, int offset, int length, @NonNull StringPool stringPool) {
+        super(classBytes, offset, length);
+        this.stringPool = stringPool;
+        this.interned = new String[getItemCount()];
+    }
+
+    @Override
+    public String readUTF8(int offset, char[] charBuffer) {
+        if (interned == null) // called by the super constructor
+            return super.readUTF8(offset, charBuffer);
+
+        int index = readUnsignedShort(offset);
+
+        if (offset == 0 || index == 0)
+            return null;
+
+        String string = interned[index];
+
+        if (string == null) {
+            string = super.readUTF8(offset, charBuffer);
+
+            if (string != null)
+                interned[index] = string = stringPool.intern(string);
+        }
+
+        return string;
+    }
+
+    void internMethodSignatures(@NonNull ClassNode cls) {
+        if (cls.methods != null)
+            for (MethodNode mtd : cls.methods)
+                if (mtd.signature != null)
+                    mtd.signature = stringPool.intern(mtd.signature);
+    }
+
+}
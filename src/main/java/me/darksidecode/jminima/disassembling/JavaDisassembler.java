@@ -20,10 +20,49 @@ import lombok.NonNull;
 import me.darksidecode.jminima.phase.EmittedValue;
 import org.objectweb.asm.tree.ClassNode;
 
+import java.util.Set;
 import java.util.jar.JarEntry;
 
+/*
+ * A single disassembler instance is created per class source (e.g. a jar file), with a single-argument
+ * constructor taking the ClassSource. Disassemblers with a constructor taking a JarFile instead (as before
+ * class sources) are still supported, but only for jar files (see JarClassSource).
+ *
+ * When disassembling in parallel (see DisassemblePhase#parallel), disassemble is called concurrently
+ * from multiple threads, so implementations must be thread-safe: per-entry state must not be kept in
+ * instance fields, and the source must only be read in ways that are safe for concurrent use.
+ * Returned ClassNodes must not be shared between entries.
+ */
 public interface JavaDisassembler {
 
     EmittedValue<? extends ClassNode> disassemble(@NonNull JarEntry entry);
 
+    default EmittedValue<? extends LazyClass> disassembleLazily(@NonNull JarEntry entry) {
+        // Disassemblers that cannot defer disassembling disassemble classes right away.
+        EmittedValue<? extends ClassNode> cls = disassemble(entry);
+
+        if (cls == null || cls.getError() != null)
+            return cls == null ? null : new EmittedValue<>(cls.getError());
+
+        return new EmittedValue<>(LazyClass.of(cls.getValue()));
+    }
+
+    default void setClassDetails(@NonNull Set<ClassDetail> details) {
+        // Called before any class is disassembled. Disassemblers that cannot skip details may ignore it.
+    }
+
+    default void setStringPool(@NonNull StringPool stringPool) {
+        // Called before any class is disassembled. Strings of disassembled classes should be interned in the pool.
+    }
+
+    default void setReadStatistics(@NonNull ReadStatistics statistics) {
+        // Called before any class is disassembled. Entries read by the disassembler should be counted in the
+        // given statistics (e.g. those of a phase execution). Disassemblers that do not count reads may ignore it.
+    }
+
+    default void setConstantPoolFilter(@NonNull ConstantPoolFilter filter) {
+        // Called before any class is disassembled. Classes that are not accepted by the filter should not be
+        // disassembled (null should be returned for them), but disassemblers may ignore it, as it is only a hint.
+    }
+
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.disassembling;
+
+import lombok.Getter;
+import lombok.NonNull;
+import me.darksidecode.jminima.phase.EmittedValue;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+ * A class that is disassembled on first access. Until then, only its header and bytes are kept in memory.
+ * Once disassembled, the bytes are released, and the same ClassNode is returned on subsequent accesses.
+ *
+ * Classes evicted from JarFileData to stay within its MemoryBudget are lazy as well. Their bytes are kept outside
+ * of the heap (source entries of unmodified ones, or a spill file), and are loaded when the class is accessed again.
+ */
+public final class LazyClass {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    @Getter
+    private final ClassHeader header;
+
+    private byte[] bytes; // null = already disassembled, or kept outside of the heap (see loader)
+
+    private final int size;
+
+    private final BytesLoader loader; // null = bytes are kept in the heap
+
+    @Getter
+    private final int readerFlags; // ClassReader flags the class is (to be) disassembled with
+
+    private final StringPool stringPool; // null = do not intern strings
+
+    @Getter
+    private final boolean evicted; // true = class has been evicted from JarFileData (see MemoryBudget)
+
+    @Getter
+    private final boolean modified; // true = class had been modified before it was evicted
+
+    @Getter
+    private final boolean nested; // true = class of a nested source (see ClassPool#isNested)
+
+    private ClassNode node;
+
+    private boolean shared; // true = node is referenced by copies of this class as well (see copy)
+
+    private String contentHash;
+
+    LazyClass(@NonNull ClassHeader header, @NonNull byte[] bytes, int readerFlags, StringPool stringPool) {
+        this(header, bytes, bytes.length, null, readerFlags, stringPool, false, false, false);
+    }
+
+    private LazyClass(ClassHeader header, byte[] bytes, int size, BytesLoader loader, int readerFlags,
+                      StringPool stringPool, boolean evicted, boolean modified, boolean nested) {
+        this.header = header;
+        this.bytes = bytes;
+        this.size = size;
+        this.loader = loader;
+        this.readerFlags = readerFlags;
+        this.stringPool = stringPool;
+        this.evicted = evicted;
+        this.modified = modified;
+        this.nested = nested;
+    }
+
+    private LazyClass(ClassNode node) {
+        this(ClassHeader.of(node), null, -1, null, 0, null, false, false, false);
+        this.node = node;
+    }
+
+    public static LazyClass of(@NonNull ClassNode node) {
+        // Already disassembled (e.g. by a disassembler that cannot defer disassembling).
+        return new LazyClass(node);
+    }
+
+    public static LazyClass of(@NonNull ClassHeader header, int size,
+                               @NonNull BytesLoader loader, int readerFlags, boolean modified) {
+        // A class whose bytes are kept outside of the heap (e.g. in a snapshot), and are loaded on each access.
+        return new LazyClass(header, null, size, loader, readerFlags, null, false, modified, false);
+    }
+
+    public static LazyClass evicted(@NonNull ClassHeader header, int size,
+                                    @NonNull BytesLoader loader, int readerFlags, boolean modified) {
+        // A class whose bytes are kept outside of the heap, and are loaded on each access.
+        return new LazyClass(header, null, size, loader, readerFlags, null, true, modified, false);
+    }
+
+    public synchronized LazyClass copy() {
+        // A class with the same bytes, which is disassembled separately (e.g. by each fork of JarFileData).
+        // If this class is disassembled already, its node is shared with the copy (see ClassPool#isShared).
+        LazyClass copy = new LazyClass(
+                header, bytes, size, loader, readerFlags, stringPool, evicted, modified, nested);
+
+        if (node != null) {
+            copy.node = node;
+            copy.shared = shared = true;
+        }
+
+        return copy;
+    }
+
+    public synchronized LazyClass asNested() {
+        // The same class, flagged as a class of a nested source. This handle is not to be used anymore.
+        LazyClass nestedClass = new LazyClass(
+                header, bytes, size, loader, readerFlags, stringPool, evicted, modified, true);
+        nestedClass.node = node;
+        nestedClass.shared = shared;
+        nestedClass.contentHash = contentHash;
+
+        return nestedClass;
+    }
+
+    public String getName() {
+        return header.getName();
+    }
+
+    public synchronized int getSize() {
+        // Size of the class file, or -1 if the class has already been disassembled.
+        return node == null ? size : -1;
+    }
+
+    public synchronized byte[] getBytes() {
+        // The class file (not to be modified), or null if the class has already been disassembled.
+        if (node != null)
+            return null;
+
+        if (bytes != null)
+            return bytes;
+
+        try {
+            return loader.load();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("failed to load bytes of lazy class " + getName(), ex);
+        }
+    }
+
+    public synchronized String getContentHash() {
+        // SHA-256 of the class file (e.g. for caching), or null if the class has been disassembled without it.
+        if (contentHash == null && node == null) {
+            byte[] digest;
+
+            try {
+                digest = MessageDigest.getInstance("SHA-256").digest(getBytes());
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException("SHA-256 is not supported", ex); // required to be supported
+            }
+
+            char[] hex = new char[digest.length * 2];
+
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2]     = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xF];
+            }
+
+            contentHash = new String(hex);
+        }
+
+        return contentHash;
+    }
+
+    public synchronized boolean isDisassembled() {
+        return node != null;
+    }
+
+    public synchronized boolean isShared() {
+        return shared;
+    }
+
+    public synchronized ClassNode getNode() {
+        if (node == null) {
+            byte[] classBytes = getBytes();
+            EmittedValue<? extends ClassNode> cls = SimpleJavaDisassembler.disassembleJavaClass(
+                    getName(), classBytes, classBytes.length, readerFlags, stringPool);
+
+            if (cls.getError() != null)
+                throw new IllegalStateException("failed to disassemble lazy class " + getName(), cls.getError());
+
+            node = cls.getValue();
+            bytes = null;
+        }
+
+        return node;
+    }
+
+    public interface BytesLoader {
+        byte[] load() throws IOException;
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.disassembling;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters of class entries read by disassemblers (e.g. to monitor allocations), either by a single
+// disassembler or by all disassemblers of a phase execution (see DisassemblePhase#getReadStatistics). Thread-safe.
+public class ReadStatistics {
+
+    private final LongAdder entriesRead = new LongAdder();
+
+    private final LongAdder bytesRead = new LongAdder();
+
+    private final LongAdder buffersAllocated = new LongAdder();
+
+    private final LongAdder bytesAllocated = new LongAdder();
+
+    private final LongAdder classesSkipped = new LongAdder();
+
+    void entryRead(long bytes) {
+        entriesRead.increment();
+        bytesRead.add(bytes);
+    }
+
+    void bufferAllocated(long bytes) {
+        buffersAllocated.increment();
+        bytesAllocated.add(bytes);
+    }
+
+    void classSkipped() {
+        classesSkipped.increment();
+    }
+
+    public long getEntriesRead() {
+        return entriesRead.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getBuffersAllocated() {
+        return buffersAllocated.sum();
+    }
+
+    public long getBytesAllocated() {
+        return bytesAllocated.sum();
+    }
+
+    public long getClassesSkipped() {
+        return classesSkipped.sum();
+    }
+
+    public void reset() {
+        entriesRead.reset();
+        bytesRead.reset();
+        buffersAllocated.reset();
+        bytesAllocated.reset();
+        classesSkipped.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "entries read: " + getEntriesRead() + " (" + getBytesRead() + " bytes), "
+                + "buffers allocated: " + getBuffersAllocated() + " (" + getBytesAllocated() + " bytes), "
+                + "classes skipped by constant pool filters: " + getClassesSkipped();
+    }
+
+}
@@ -16,64 +16,176 @@
 
 package me.darksidecode.jminima.disassembling;
 
+import lombok.Getter;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
 import me.darksidecode.jminima.phase.EmittedValue;
 import me.darksidecode.jminima.phase.PhaseExecutionException;
+import me.darksidecode.jminima.source.ClassSource;
+import me.darksidecode.jminima.source.JarClassSource;
 import me.darksidecode.jminima.util.JarFileData;
-import org.apache.commons.io.IOUtils;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.tree.ClassNode;
 
-import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
-@RequiredArgsConstructor
 public class SimpleJavaDisassembler implements JavaDisassembler {
 
-    @NonNull
-    private final JarFile jarFile;
+    private static final int MAX_SCRATCH_BUFFER_SIZE = 1024 * 1024; // larger buffers are not kept for reuse
+
+    private final ClassSource source;
+
+    private final Queue<byte[]> scratchBuffers = new ConcurrentLinkedQueue<>(); // one per thread at most
+
+    @Getter
+    private ReadStatistics statistics = new ReadStatistics();
+
+    private int readerFlags = ClassDetail.readerFlags(ClassDetail.ALL);
+
+    private ConstantPoolFilter constantPoolFilter; // null = disassemble all classes
+
+    private StringPool stringPool; // null = do not intern strings
+
+    public SimpleJavaDisassembler(@NonNull JarFile jarFile) {
+        this(new JarClassSource(jarFile));
+    }
+
+    public SimpleJavaDisassembler(@NonNull ClassSource source) {
+        this.source = source;
+    }
+
+    @Override
+    public void setClassDetails(@NonNull Set<ClassDetail> details) {
+        readerFlags = ClassDetail.readerFlags(details);
+    }
+
+    @Override
+    public void setStringPool(@NonNull StringPool stringPool) {
+        this.stringPool = stringPool;
+    }
+
+    @Override
+    public void setConstantPoolFilter(@NonNull ConstantPoolFilter filter) {
+        constantPoolFilter = filter;
+    }
+
+    @Override
+    public void setReadStatistics(@NonNull ReadStatistics statistics) {
+        this.statistics = statistics;
+    }
 
     @Override
     public EmittedValue<? extends ClassNode> disassemble(@NonNull JarEntry entry) {
-        try (InputStream stream = jarFile.getInputStream(entry)) {
-            if (JarFileData.isClassEntry(entry)) {
-                byte[] bytes = IOUtils.toByteArray(stream);
+        return read(entry, (name, bytes, length) -> disassembleJavaClass(name, bytes, length, readerFlags, stringPool));
+    }
+
+    @Override
+    public EmittedValue<? extends LazyClass> disassembleLazily(@NonNull JarEntry entry) {
+        return read(entry, this::lazyClassOf);
+    }
+
+    private <T> EmittedValue<? extends T> read(JarEntry entry, ClassParser<T> parser) {
+        if (!JarFileData.isClassEntry(entry))
+            return null; // not a class entry
 
-                if (bytes.length > 4) {
-                    String magicNumberHex = String.format(
-                            "%02X%02X%02X%02X", bytes[0], bytes[1], bytes[2], bytes[3]);
+        // Entry data is read right into a free scratch buffer, if it is large enough. Buffers are only
+        // reused once classes have been parsed, and are released along with this disassembler.
+        byte[] scratchBuffer = scratchBuffers.poll();
+        byte[] buffer = null;
+
+        try {
+            buffer = source.readEntry(entry, scratchBuffer);
+            int length = entry.getSize() != -1 ? (int) entry.getSize() : buffer.length;
 
-                    if (magicNumberHex.equalsIgnoreCase("cafebabe"))
-                        return disassembleJavaClass(entry.getName(), bytes);
+            if (buffer != scratchBuffer)
+                statistics.bufferAllocated(buffer.length);
+
+            statistics.entryRead(length);
+
+            if (length >= 4 && readInt(buffer) == 0xCAFEBABE) {
+                if (constantPoolFilter != null && !constantPoolFilter.accepts(buffer, length)) {
+                    statistics.classSkipped();
+                    return null; // kept as it is
                 }
+
+                return parser.parse(entry.getName(), buffer, length);
             }
         } catch (Throwable t) {
             return new EmittedValue<>(new PhaseExecutionException(
                     false, "failed to read a jar entry: " + entry.getName(), t));
+        } finally {
+            byte[] reusableBuffer = buffer != null && buffer.length <= MAX_SCRATCH_BUFFER_SIZE ? buffer : scratchBuffer;
+
+            if (reusableBuffer != null)
+                scratchBuffers.offer(reusableBuffer);
         }
 
         return null; // not a class entry
     }
 
-    private static EmittedValue<? extends ClassNode> disassembleJavaClass(String name, byte[] classBytes) {
-        ClassReader reader = new ClassReader(classBytes);
+    private EmittedValue<? extends LazyClass> lazyClassOf(String name, byte[] classBytes, int length) {
+        try {
+            // The buffer is reused for other entries, so the class keeps a copy of its bytes.
+            ClassHeader header = ClassHeader.of(newReader(classBytes, length, stringPool));
+            return new EmittedValue<>(new LazyClass(
+                    header, Arrays.copyOf(classBytes, length), readerFlags, stringPool));
+        } catch (Throwable t) {
+            return new EmittedValue<>(new PhaseExecutionException(
+                    false, "failed to read the header of a " + length
+                    + " bytes Java class: " + name, t));
+        }
+    }
+
+    private static int readInt(byte[] bytes) {
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | bytes[3] & 0xFF;
+    }
+
+    private static ClassReader newReader(byte[] classBytes, int length, StringPool stringPool) {
+        return stringPool != null ? new InterningClassReader(classBytes, 0, length, stringPool)
+                : new ClassReader(classBytes, 0, length);
+    }
+
+    static EmittedValue<? extends ClassNode> disassembleJavaClass(String name, byte[] classBytes, int length,
+                                                                  int readerFlags, StringPool stringPool) {
+        ClassReader reader = newReader(classBytes, length, stringPool);
         ClassNode cls = new ClassNode();
 
         try {
-            reader.accept(cls, ClassReader.EXPAND_FRAMES);
+            reader.accept(cls, readerFlags);
         } catch (Throwable t1) {
+            // Retry without frames and debug info (often malformed by obfuscators) into a fresh node,
+            // as the failed attempt may have left the previous one filled in partially.
+            int fallbackFlags = (readerFlags & ~ClassReader.EXPAND_FRAMES)
+                    | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG;
+
+            if (fallbackFlags == readerFlags)
+                return new EmittedValue<>(new PhaseExecutionException(
+                        false, "failed to disassemble a " + length
+                        + " bytes Java class: " + name, t1));
+
+            cls = new ClassNode();
+
             try {
-                reader.accept(cls, ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+                reader.accept(cls, fallbackFlags);
             } catch (Throwable t2) {
                 return new EmittedValue<>(new PhaseExecutionException(
-                        false, "failed to disassemble a " + classBytes.length
+                        false, "failed to disassemble a " + length
                         + " bytes Java class: " + name, t2));
             }
         }
 
+        if (reader instanceof InterningClassReader)
+            ((InterningClassReader) reader).internMethodSignatures(cls);
+
         return new EmittedValue<>(cls);
     }
 
+    private interface ClassParser<T> {
+        EmittedValue<? extends T> parse(String name, byte[] classBytes, int length);
+    }
+
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.disassembling;
+
+import lombok.NonNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Canonicalizes strings (names, descriptors, signatures, constants) of disassembled classes, so that
+ * classes share a single instance of each string instead of holding copies of their own. Thread-safe.
+ */
+public class StringPool {
+
+    private static final int STRING_OVERHEAD = 40; // approx. size of a String and its (Latin-1) array, w/o chars
+
+    private final Map<String, String> strings = new ConcurrentHashMap<>();
+
+    private final LongAdder lookups = new LongAdder();
+
+    private final LongAdder duplicates = new LongAdder();
+
+    private final LongAdder bytesSaved = new LongAdder();
+
+    public String intern(@NonNull String string) {
+        String canonical = strings.putIfAbsent(string, string);
+        lookups.increment();
+
+        if (canonical == null)
+            return string;
+
+        if (canonical != string) {
+            duplicates.increment();
+            bytesSaved.add(STRING_OVERHEAD + string.length());
+        }
+
+        return canonical;
+    }
+
+    public int getUniqueStrings() {
+        return strings.size();
+    }
+
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    public long getBytesSaved() {
+        // An estimate, assuming that the duplicates would have been retained otherwise.
+        return bytesSaved.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "unique strings: " + getUniqueStrings() + ", lookups: " + getLookups()
+                + ", duplicates replaced: " + getDuplicates() + " (~" + getBytesSaved() + " bytes saved)";
+    }
+
+}
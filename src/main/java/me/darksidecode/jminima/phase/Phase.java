@@ -18,6 +18,10 @@ package me.darksidecode.jminima.phase;
 
 import lombok.Getter;
 import lombok.NonNull;
+import me.darksidecode.jminima.disassembling.ClassDetail;
+import me.darksidecode.jminima.util.JarFileData;
+
+import java.util.Set;
 
 public abstract class Phase<TargetType, EmitType> {
 
@@ -47,6 +51,18 @@ public abstract class Phase<TargetType, EmitType> {
 
     public abstract Class<? super TargetType> getTargetTypeClass();
 
+    public Set<ClassDetail> getRequiredClassDetails() {
+        // Phases that may work with disassembled classes are assumed to need all of their details.
+        return getTargetTypeClass().isAssignableFrom(JarFileData.class) ? ClassDetail.ALL : ClassDetail.NONE;
+    }
+
+    public String getConfiguration() {
+        // Settings (other than the phase class) that affect the result of the phase, in a form that
+        // stays the same across runs. Checkpoints saved after the phase are only resumed if it matches.
+        // Null = some settings cannot be described (e.g. code), so checkpoints need a version to be saved.
+        return "";
+    }
+
     protected abstract EmittedValue<? extends EmitType> execute(
             TargetType target, PhaseExecutionException error) throws Throwable;
 
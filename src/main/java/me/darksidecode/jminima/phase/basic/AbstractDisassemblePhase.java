@@ -0,0 +1,385 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.darksidecode.jminima.phase.basic;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import me.darksidecode.jminima.JMinima;
+import me.darksidecode.jminima.disassembling.ClassDetail;
+import me.darksidecode.jminima.disassembling.ClassDetailsSelector;
+import me.darksidecode.jminima.disassembling.ConstantPoolFilter;
+import me.darksidecode.jminima.disassembling.EntryFilter;
+import me.darksidecode.jminima.disassembling.JavaDisassembler;
+import me.darksidecode.jminima.disassembling.LazyClass;
+import me.darksidecode.jminima.disassembling.ReadStatistics;
+import me.darksidecode.jminima.disassembling.StringPool;
+import me.darksidecode.jminima.phase.EmittedValue;
+import me.darksidecode.jminima.phase.Phase;
+import me.darksidecode.jminima.phase.PhaseExecutionException;
+import me.darksidecode.jminima.source.ClassSource;
+import me.darksidecode.jminima.util.ClassPool;
+import me.darksidecode.jminima.util.JarFileData;
+import me.darksidecode.jminima.util.MemoryBudget;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Disassembles all classes of the class source of a target (see DisassemblePhase and DisassembleSourcePhase).
+ * Nested sources (e.g. jars inside a fat jar) are disassembled as well, recursively, and their classes are
+ * flagged as such (see ClassPool#isNested). Each source is disassembled by its own JavaDisassembler.
+ *
+ * Entries can be disassembled in parallel - either in the common fork-join pool, or in the given executor
+ * (which is not shut down by this phase). Classes and errors are always collected in the order of sources
+ * and of their entries, regardless of scheduling.
+ */
+public abstract class AbstractDisassemblePhase<TargetType, Self extends AbstractDisassemblePhase<TargetType, Self>>
+        extends Phase<TargetType, JarFileData> implements ClassDetailsSelector {
+
+    private static final int CHUNKS_PER_THREAD = 4; // more, smaller chunks balance uneven class sizes
+
+    private static final int BUDGET_CHECK_INTERVAL = 256; // entries between budget checks, on the calling thread
+
+    private final String targetName;
+
+    private final String errMsgHeader;
+
+    private final DisassemblerConstructor disassemblerConstructor;
+
+    private Set<ClassDetail> classDetails = ClassDetail.ALL;
+
+    private boolean classDetailsFixed; // true = set explicitly, not selected by the workflow
+
+    private EntryFilter filter; // null = disassemble all entries
+
+    private ConstantPoolFilter constantPoolFilter; // null = disassemble all classes
+
+    private ExecutorService executor; // null = disassemble on the calling thread
+
+    private int parallelism = 1;
+
+    private boolean lazy;
+
+    private boolean internStrings;
+
+    private MemoryBudget memoryBudget; // null = keep all disassembled classes
+
+    @Getter
+    private StringPool stringPool; // of the last execution; null = strings are not interned
+
+    @Getter
+    private ReadStatistics readStatistics; // of the last execution
+
+    protected AbstractDisassemblePhase(@NonNull Class<? extends JavaDisassembler> disassemblerClass,
+                                       @NonNull String targetName) {
+        disassemblerConstructor = new DisassemblerConstructor(disassemblerClass);
+        this.targetName = targetName;
+        errMsgHeader = "the following errors occurred during " + targetName + " disassembling:";
+    }
+
+    public Self parallel() {
+        // Disassemble in the common fork-join pool.
+        return executor(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    public Self executor(@NonNull ExecutorService executor, int parallelism) {
+        // Disassemble in the given executor, which runs up to the given number of tasks at once.
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+
+        this.executor = executor;
+        this.parallelism = parallelism;
+        return self();
+    }
+
+    public Self filter(EntryFilter filter) {
+        // Disassemble only entries accepted by the given filter (null = all entries).
+        this.filter = filter;
+        return self();
+    }
+
+    public Self constantPoolFilter(ConstantPoolFilter constantPoolFilter) {
+        // Disassemble only classes whose constant pools are accepted by the given filter (null = all classes).
+        this.constantPoolFilter = constantPoolFilter;
+        return self();
+    }
+
+    public Self lazy(boolean lazy) {
+        // Only read headers of classes, and disassemble each class when it is first accessed (see JarFileData).
+        this.lazy = lazy;
+        return self();
+    }
+
+    public Self internStrings(boolean internStrings) {
+        // Share identical strings between all classes disassembled in each execution (see getStringPool).
+        this.internStrings = internStrings;
+        return self();
+    }
+
+    public Self memoryBudget(MemoryBudget memoryBudget) {
+        // Keep disassembled classes within the given budget (see JarFileData#enforceMemoryBudget).
+        this.memoryBudget = memoryBudget;
+        return self();
+    }
+
+    public Self classDetails(@NonNull ClassDetail... details) {
+        // Disassemble classes with exactly the given details, regardless of what subsequent phases need.
+        classDetails = details.length == 0 ? ClassDetail.NONE : EnumSet.copyOf(Arrays.asList(details));
+        classDetailsFixed = true;
+        return self();
+    }
+
+    @Override
+    public void selectClassDetails(@NonNull Set<ClassDetail> details) {
+        if (!classDetailsFixed)
+            classDetails = details;
+    }
+
+    @Override
+    public String getConfiguration() {
+        String filterConfiguration = filter != null ? filter.getConfiguration() : "";
+
+        if (filterConfiguration == null)
+            return null; // the filter has predicates (code), which cannot be described
+
+        return disassemblerConstructor.getDisassemblerName()
+                + (classDetailsFixed ? " " + classDetails : "") + (lazy ? " lazy" : "")
+                + (filter != null ? " filter(" + filterConfiguration + ")" : "")
+                + (constantPoolFilter != null
+                        ? " constantPoolFilter(" + constantPoolFilter.getConfiguration() + ")" : "")
+                + (internStrings ? " internStrings" : "")
+                + (memoryBudget != null ? " memoryBudget(" + memoryBudget.getMaxSize() + ")" : "");
+    }
+
+    @Override
+    protected EmittedValue<? extends JarFileData> execute(TargetType target,
+                                                          PhaseExecutionException error) throws Throwable {
+        if (target == null)
+            return new EmittedValue<>(new PhaseExecutionException(
+                    true, "failed to disassemble the target " + targetName, error));
+
+        StringBuilder errMsgBuilder = new StringBuilder(errMsgHeader);
+        stringPool = internStrings ? new StringPool() : null;
+        readStatistics = new ReadStatistics();
+        JarFileData jarFileData = newJarFileData(target, new ClassPool(), lazy ? new LinkedHashSet<>() : null);
+        jarFileData.setMemoryBudget(memoryBudget);
+        boolean anySuccess = disassemble(jarFileData.getSource(), errMsgBuilder, jarFileData);
+        disassembled(jarFileData, errMsgBuilder);
+        String errMsg = errMsgBuilder.toString();
+
+        if (errMsg.equals(errMsgHeader))
+            return new EmittedValue<>(jarFileData); // full success
+        else
+            return new EmittedValue<>(jarFileData,
+                   new PhaseExecutionException(!anySuccess, errMsg)); // error(s)
+    }
+
+    // Data to collect classes of the given target to. Its source is the one to disassemble.
+    protected abstract JarFileData newJarFileData(TargetType target, ClassPool classes, Set<LazyClass> lazyClasses);
+
+    protected void collected(ClassNode cls, StringBuilder errMsgBuilder) throws InterruptedException {
+        // Called for each disassembled (not lazy) class once it is collected, in order, on the executing thread.
+    }
+
+    protected void disassembled(JarFileData jarFileData, StringBuilder errMsgBuilder) throws InterruptedException {
+        // Called once all classes are collected, before the data is emitted.
+    }
+
+    private boolean disassemble(ClassSource root, StringBuilder errMsgBuilder,
+                                JarFileData jarFileData) throws InterruptedException {
+        List<ClassSource> sources = new ArrayList<>();
+        List<Chunk> chunks = new ArrayList<>();
+        boolean anySuccess = false;
+        collectSources(root, sources, errMsgBuilder);
+
+        for (ClassSource source : sources) {
+            JavaDisassembler disassembler = newDisassembler(source, errMsgBuilder);
+
+            if (disassembler == null)
+                continue; // fatal error (for this source)
+
+            anySuccess = true;
+
+            if (executor == null) {
+                Iterator<JarEntry> entries = entries(source.stream()).iterator();
+
+                for (int i = 1; entries.hasNext(); i++) {
+                    collect(disassemble(disassembler, entries.next()), source != root, errMsgBuilder, jarFileData);
+
+                    if (i % BUDGET_CHECK_INTERVAL == 0)
+                        jarFileData.enforceMemoryBudget(Integer.MAX_VALUE, errMsgBuilder);
+                }
+            } else
+                chunks.add(new Chunk(disassembler, source != root,
+                        entries(source.stream()).collect(Collectors.toList())));
+        }
+
+        if (executor != null)
+            disassembleInParallel(chunks, errMsgBuilder, jarFileData);
+
+        jarFileData.enforceMemoryBudget(Integer.MAX_VALUE, errMsgBuilder);
+
+        return anySuccess; // full or partial success
+    }
+
+    private void disassembleInParallel(List<Chunk> sources, StringBuilder errMsgBuilder,
+                                       JarFileData jarFileData) throws InterruptedException {
+        // Each task disassembles a contiguous chunk of entries of a source, and chunks are merged in order.
+        int entriesCount = sources.stream().mapToInt(source -> source.entries.size()).sum();
+        int chunkSize = Math.max(1, (entriesCount + parallelism * CHUNKS_PER_THREAD - 1)
+                / (parallelism * CHUNKS_PER_THREAD));
+        List<Chunk> chunks = new ArrayList<>();
+        List<Future<List<EmittedValue<?>>>> results = new ArrayList<>();
+
+        try {
+            for (Chunk source : sources) {
+                for (int from = 0; from < source.entries.size(); from += chunkSize) {
+                    Chunk chunk = new Chunk(source.disassembler, source.nested, source.entries.subList(
+                            from, Math.min(from + chunkSize, source.entries.size())));
+                    chunks.add(chunk);
+                    results.add(executor.submit(() -> disassemble(chunk)));
+                }
+            }
+
+            for (int i = 0; i < chunks.size(); i++) {
+                boolean nested = chunks.get(i).nested;
+
+                try {
+                    for (EmittedValue<?> cls : results.get(i).get())
+                        collect(cls, nested, errMsgBuilder, jarFileData);
+
+                    jarFileData.enforceMemoryBudget(Integer.MAX_VALUE, errMsgBuilder);
+                } catch (ExecutionException ex) {
+                    // Not an error of a single class (these are emitted), but of the disassembler itself.
+                    if (JMinima.debug) ex.getCause().printStackTrace();
+                    errMsgBuilder.append("\n    - ").append(ex.getCause());
+                }
+            }
+        } finally {
+            results.forEach(result -> result.cancel(true)); // only matters when interrupted
+        }
+    }
+
+    private static void collectSources(ClassSource source, List<ClassSource> sources,
+                                       StringBuilder errMsgBuilder) {
+        sources.add(source);
+
+        try {
+            for (ClassSource nestedSource : source.getNestedSources())
+                collectSources(nestedSource, sources, errMsgBuilder);
+        } catch (Throwable t) {
+            if (JMinima.debug) t.printStackTrace();
+            errMsgBuilder.append("\n    - [").append(source.getName()).append("] ").append(t);
+        }
+    }
+
+    private JavaDisassembler newDisassembler(ClassSource source, StringBuilder errMsgBuilder) {
+        JavaDisassembler disassembler;
+
+        try {
+            disassembler = disassemblerConstructor.newInstance(source);
+        } catch (ReflectiveOperationException ex) {
+            if (JMinima.debug) ex.printStackTrace();
+            errMsgBuilder.append("\n    - ").append(ex);
+            return null;
+        }
+
+        disassembler.setClassDetails(classDetails);
+
+        if (constantPoolFilter != null)
+            disassembler.setConstantPoolFilter(constantPoolFilter);
+
+        if (stringPool != null)
+            disassembler.setStringPool(stringPool);
+
+        disassembler.setReadStatistics(readStatistics);
+
+        return disassembler;
+    }
+
+    private List<EmittedValue<?>> disassemble(Chunk chunk) {
+        List<EmittedValue<?>> results = new ArrayList<>(chunk.entries.size());
+
+        for (JarEntry entry : chunk.entries)
+            results.add(disassemble(chunk.disassembler, entry));
+
+        return results;
+    }
+
+    private EmittedValue<?> disassemble(JavaDisassembler disassembler, JarEntry entry) {
+        return lazy ? disassembler.disassembleLazily(entry) : disassembler.disassemble(entry);
+    }
+
+    private void collect(EmittedValue<?> cls, boolean nested, StringBuilder errMsgBuilder,
+                         JarFileData jarFileData) throws InterruptedException {
+        if (cls != null) {
+            if (cls.getError() != null) {
+                if (JMinima.debug) cls.getError().printStackTrace();
+                errMsgBuilder.append("\n    - ").append(cls.getError());
+            } else if (cls.getValue() instanceof LazyClass) {
+                LazyClass lazyClass = (LazyClass) cls.getValue();
+
+                if (lazyClass.getName().equals("java/lang/Object") || lazyClass.getHeader().getSuperName() != null)
+                    jarFileData.getLazyClasses().add(nested ? lazyClass.asNested() : lazyClass);
+            } else {
+                ClassNode classNode = (ClassNode) cls.getValue();
+
+                if (classNode.name.equals("java/lang/Object") || classNode.superName != null) {
+                    int id = jarFileData.getClasses().add(classNode);
+
+                    if (nested)
+                        jarFileData.getClasses().setNested(id, true);
+
+                    collected(classNode, errMsgBuilder);
+                }
+            }
+        }
+    }
+
+    private Stream<JarEntry> entries(Stream<JarEntry> entries) {
+        return filter != null ? entries.filter(filter::accepts) : entries;
+    }
+
+    @SuppressWarnings ("unchecked")
+    private Self self() {
+        return (Self) this;
+    }
+
+    // Entries of a source (or a contiguous part of them), all disassembled by the same disassembler.
+    @RequiredArgsConstructor
+    private static final class Chunk {
+        private final JavaDisassembler disassembler;
+        private final boolean nested;
+        private final List<JarEntry> entries;
+    }
+
+}
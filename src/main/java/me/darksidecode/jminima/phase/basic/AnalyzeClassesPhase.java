@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.phase.basic;
+
+import lombok.NonNull;
+import me.darksidecode.jminima.JMinima;
+import me.darksidecode.jminima.analysis.AnalysisCache;
+import me.darksidecode.jminima.analysis.AnalysisResults;
+import me.darksidecode.jminima.analysis.ClassAnalyzer;
+import me.darksidecode.jminima.disassembling.ClassDetail;
+import me.darksidecode.jminima.disassembling.LazyClass;
+import me.darksidecode.jminima.phase.EmittedValue;
+import me.darksidecode.jminima.phase.Phase;
+import me.darksidecode.jminima.phase.PhaseExecutionException;
+import me.darksidecode.jminima.util.JarFileData;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Runs a ClassAnalyzer on all classes. When classes are disassembled lazily (see DisassemblePhase#lazy),
+ * results are looked up in the cache (if any) by contents of classes first, and classes with cached results
+ * are not disassembled at all. Classes that are disassembled already (e.g. by a DisassemblePhase that is not lazy)
+ * are always analyzed, and only counted as bypasses of the cache (see CacheStatistics#getBypasses).
+ */
+public class AnalyzeClassesPhase<R> extends Phase<JarFileData, AnalysisResults<R>> {
+
+    private static final String DEFAULT_ERR_MSG_HEADER
+            = "the following errors occurred during classes analysis:";
+
+    private final ClassAnalyzer<R> analyzer;
+
+    private AnalysisCache cache; // null = do not cache results
+
+    public AnalyzeClassesPhase(@NonNull ClassAnalyzer<R> analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    public AnalyzeClassesPhase<R> cache(AnalysisCache cache) {
+        // Look results of lazy classes up in the given cache, and store them there (null = do not cache results).
+        this.cache = cache;
+        return this;
+    }
+
+    @Override
+    public Class<? super JarFileData> getTargetTypeClass() {
+        return JarFileData.class;
+    }
+
+    @Override
+    public Set<ClassDetail> getRequiredClassDetails() {
+        return analyzer.getRequiredClassDetails();
+    }
+
+    @Override
+    protected EmittedValue<? extends AnalysisResults<R>> execute(JarFileData target,
+                                                                 PhaseExecutionException error) throws Throwable {
+        if (target == null || target.getClasses() == null)
+            return new EmittedValue<>(new PhaseExecutionException(
+                    true, "failed to analyze classes of the target disassembled data", error));
+
+        StringBuilder errMsgBuilder = new StringBuilder(DEFAULT_ERR_MSG_HEADER);
+        Map<String, R> results = new LinkedHashMap<>();
+
+        for (ClassNode cls : target.getClasses().keySet()) {
+            if (cache != null)
+                cache.bypass();
+
+            analyze(cls, results, errMsgBuilder);
+        }
+
+        if (target.getLazyClasses() != null)
+            for (LazyClass cls : new ArrayList<>(target.getLazyClasses()))
+                analyze(target, cls, results, errMsgBuilder);
+
+        String errMsg = errMsgBuilder.toString();
+        AnalysisResults<R> analysisResults = new AnalysisResults<>(analyzer.getId(), results);
+
+        if (errMsg.equals(DEFAULT_ERR_MSG_HEADER))
+            return new EmittedValue<>(analysisResults); // full success
+        else
+            return new EmittedValue<>(analysisResults,
+                   new PhaseExecutionException(false, errMsg)); // error(s)
+    }
+
+    private R analyze(ClassNode cls, Map<String, R> results, StringBuilder errMsgBuilder) {
+        try {
+            R result = analyzer.analyze(cls);
+            results.put(cls.name, result);
+
+            return result;
+        } catch (Throwable t) {
+            if (JMinima.debug) t.printStackTrace();
+            errMsgBuilder.append("\n    - [").append(cls.name).append("] ").append(t);
+
+            return null;
+        }
+    }
+
+    private void analyze(JarFileData jarFileData, LazyClass cls,
+                         Map<String, R> results, StringBuilder errMsgBuilder) {
+        String key = cache != null && cls.getContentHash() != null ? keyOf(cls) : null;
+
+        if (key != null) {
+            byte[] cached = cache.get(key);
+
+            if (cached != null) {
+                try {
+                    results.put(cls.getName(), analyzer.deserialize(cached));
+                    return; // not even disassembled
+                } catch (Throwable t) {
+                    // Written by another version of the analyzer? Analyze it again (and overwrite).
+                    if (JMinima.debug) t.printStackTrace();
+                }
+            }
+        }
+
+        ClassNode node;
+
+        try {
+            node = jarFileData.materialize(cls);
+        } catch (Throwable t) {
+            if (JMinima.debug) t.printStackTrace();
+            errMsgBuilder.append("\n    - ").append(t);
+            return;
+        }
+
+        R result = analyze(node, results, errMsgBuilder);
+        jarFileData.enforceMemoryBudget(jarFileData.getClasses().idOf(node), errMsgBuilder);
+
+        if (key != null && result != null) {
+            try {
+                cache.put(key, analyzer.serialize(result));
+            } catch (Throwable t) {
+                if (JMinima.debug) t.printStackTrace();
+                errMsgBuilder.append("\n    - [").append(cls.getName()).append("] failed to cache: ").append(t);
+            }
+        }
+    }
+
+    private String keyOf(LazyClass cls) {
+        // Results depend on the analyzer, on the class itself, and on details the class is disassembled with.
+        return analyzer.getId().replaceAll("[^A-Za-z0-9._-]", "_")
+                + '-' + Integer.toHexString(cls.getReaderFlags()) + '-' + cls.getContentHash();
+    }
+
+}
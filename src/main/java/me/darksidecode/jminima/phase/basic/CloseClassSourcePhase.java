@@ -0,0 +1,43 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.phase.basic;
+
+import me.darksidecode.jminima.phase.EmittedValue;
+import me.darksidecode.jminima.phase.Phase;
+import me.darksidecode.jminima.phase.PhaseExecutionException;
+import me.darksidecode.jminima.source.ClassSource;
+
+public class CloseClassSourcePhase extends Phase<ClassSource, Void> {
+
+    @Override
+    public Class<? super ClassSource> getTargetTypeClass() {
+        return ClassSource.class;
+    }
+
+    @Override
+    protected EmittedValue<? extends Void> execute(ClassSource target,
+                                                   PhaseExecutionException error) throws Throwable {
+        if (target == null)
+            return new EmittedValue<>(new PhaseExecutionException(
+                    true, "failed to close the target class source", error));
+
+        target.close();
+
+        return null; // success
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.darksidecode.jminima.phase.basic;
+
+import lombok.NonNull;
+import me.darksidecode.jminima.disassembling.JavaDisassembler;
+import me.darksidecode.jminima.disassembling.LazyClass;
+import me.darksidecode.jminima.source.ClassSource;
+import me.darksidecode.jminima.source.JarClassSource;
+import me.darksidecode.jminima.util.ClassPool;
+import me.darksidecode.jminima.util.JarFileData;
+
+import java.util.Set;
+
+/*
+ * Like DisassemblePhase, but for any ClassSource (see AbstractDisassemblePhase), e.g. one opened
+ * with OpenClassSourcePhase.
+ */
+public class DisassembleSourcePhase extends AbstractDisassemblePhase<ClassSource, DisassembleSourcePhase> {
+
+    public DisassembleSourcePhase(@NonNull Class<? extends JavaDisassembler> disassemblerClass) {
+        super(disassemblerClass, "class source");
+    }
+
+    @Override
+    public Class<? super ClassSource> getTargetTypeClass() {
+        return ClassSource.class;
+    }
+
+    @Override
+    protected JarFileData newJarFileData(ClassSource target, ClassPool classes, Set<LazyClass> lazyClasses) {
+        return new JarFileData(target instanceof JarClassSource
+                ? ((JarClassSource) target).getJarFile() : null, classes, null, target, lazyClasses);
+    }
+
+}
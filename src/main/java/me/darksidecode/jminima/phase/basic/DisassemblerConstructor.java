@@ -0,0 +1,75 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.phase.basic;
+
+import lombok.NonNull;
+import me.darksidecode.jminima.disassembling.JavaDisassembler;
+import me.darksidecode.jminima.source.ClassSource;
+import me.darksidecode.jminima.source.JarClassSource;
+
+import java.lang.reflect.Constructor;
+import java.util.jar.JarFile;
+
+/*
+ * The constructor of a JavaDisassembler: the one taking a ClassSource, or, for disassemblers written before
+ * class sources, the one taking a JarFile. The latter can only disassemble jar files (see JarClassSource),
+ * e.g. the ones opened by OpenJarFilePhase.
+ */
+final class DisassemblerConstructor {
+
+    private final Class<? extends JavaDisassembler> disassemblerClass;
+
+    private final Constructor<? extends JavaDisassembler> sourceConstructor; // null = only jar files
+
+    private final Constructor<? extends JavaDisassembler> jarFileConstructor; // null = only class sources
+
+    DisassemblerConstructor(@NonNull Class<? extends JavaDisassembler> disassemblerClass) {
+        this.disassemblerClass = disassemblerClass;
+        sourceConstructor = constructorOf(disassemblerClass, ClassSource.class);
+        jarFileConstructor = constructorOf(disassemblerClass, JarFile.class);
+
+        if (sourceConstructor == null && jarFileConstructor == null)
+            throw new IllegalArgumentException(
+                    "invalid JavaDisassembler: missing single-argument constructor " +
+                            "with parameter of type ClassSource (or JarFile)");
+    }
+
+    String getDisassemblerName() {
+        return disassemblerClass.getName();
+    }
+
+    JavaDisassembler newInstance(@NonNull ClassSource source) throws ReflectiveOperationException {
+        if (sourceConstructor != null)
+            return sourceConstructor.newInstance(source);
+
+        if (source instanceof JarClassSource)
+            return jarFileConstructor.newInstance(((JarClassSource) source).getJarFile());
+
+        throw new NoSuchMethodException(disassemblerClass.getName() + " cannot disassemble " + source.getName()
+                + ": missing single-argument constructor with parameter of type ClassSource");
+    }
+
+    private static Constructor<? extends JavaDisassembler> constructorOf(
+            Class<? extends JavaDisassembler> disassemblerClass, Class<?> parameterType) {
+        try {
+            return disassemblerClass.getConstructor(parameterType);
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+}
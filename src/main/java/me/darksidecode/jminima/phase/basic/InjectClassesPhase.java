@@ -17,34 +17,61 @@
 package me.darksidecode.jminima.phase.basic;
 
 import lombok.NonNull;
+import me.darksidecode.jminima.disassembling.ClassHeader;
+import me.darksidecode.jminima.phase.EmittedValue;
+import me.darksidecode.jminima.phase.PhaseExecutionException;
+import me.darksidecode.jminima.util.EntryContent;
+import me.darksidecode.jminima.util.HierarchyClassWriter;
+import me.darksidecode.jminima.util.JarFileData;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.tree.ClassNode;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.jar.JarEntry;
 
 public class InjectClassesPhase extends InjectJarEntriesPhase {
 
+    private final Map<String, ClassNode> framedClasses = new LinkedHashMap<>(); // by names; frames are computed
+
     public InjectClassesPhase(@NonNull Collection<? extends ClassNode> classes) {
-        super(fromClassNodes(classes));
+        this(classes, false);
+    }
+
+    public InjectClassesPhase(@NonNull Collection<? extends ClassNode> classes, boolean computeFrames) {
+        // Classes are only serialized when (and if) they are saved, possibly in parallel (see SaveJarPhase).
+        // Frames are computed with supertypes resolved from injected classes and classes of the target
+        // (see HierarchyClassWriter), so only the other supertypes (e.g. of the JDK) must be loadable.
+        Map<String, ClassNode> byName = new LinkedHashMap<>();
+
+        for (ClassNode cls : classes)
+            byName.put(cls.name, cls);
+
+        if (computeFrames)
+            framedClasses.putAll(byName); // injected on execution, once the target is known
+        else
+            byName.forEach((name, cls) -> entry(new JarEntry(name + ".class"), EntryContent.of(cls, 0)));
     }
 
     public InjectClassesPhase(@NonNull Map<String, ? extends ClassWriter> classes) {
         super(fromClassWriters(classes));
     }
 
-    private static Map<JarEntry, byte[]> fromClassNodes(@NonNull Collection<? extends ClassNode> classes) {
-        Map<String, ClassWriter> map = new HashMap<>();
+    @Override
+    protected EmittedValue<? extends Void> execute(JarFileData target,
+                                                   PhaseExecutionException error) throws Throwable {
+        if (target != null)
+            framedClasses.forEach((name, cls) -> entry(new JarEntry(name + ".class"), EntryContent.of(cls,
+                    () -> new HierarchyClassWriter(ClassWriter.COMPUTE_FRAMES, type -> headerOf(type, target)))));
 
-        for (ClassNode cls : classes) {
-            ClassWriter writer = new ClassWriter(0);
-            cls.accept(writer);
-            map.put(cls.name, writer);
-        }
+        return super.execute(target, error);
+    }
 
-        return fromClassWriters(map);
+    private ClassHeader headerOf(String name, JarFileData target) {
+        ClassNode injectedClass = framedClasses.get(name);
+        return injectedClass != null ? ClassHeader.of(injectedClass) : target.getHeader(name);
     }
 
     private static Map<JarEntry, byte[]> fromClassWriters(@NonNull Map<String, ? extends ClassWriter> classes) {
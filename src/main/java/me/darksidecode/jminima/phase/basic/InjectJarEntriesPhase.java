@@ -17,27 +17,59 @@
 package me.darksidecode.jminima.phase.basic;
 
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
+import me.darksidecode.jminima.disassembling.ClassDetail;
 import me.darksidecode.jminima.phase.EmittedValue;
 import me.darksidecode.jminima.phase.Phase;
 import me.darksidecode.jminima.phase.PhaseExecutionException;
+import me.darksidecode.jminima.util.EntryContent;
 import me.darksidecode.jminima.util.JarFileData;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.jar.JarEntry;
 
-@RequiredArgsConstructor
 public class InjectJarEntriesPhase extends Phase<JarFileData, Void> {
 
-    @NonNull
-    private final Map<JarEntry, byte[]> jarEntries;
+    private final Map<JarEntry, EntryContent> jarEntries = new LinkedHashMap<>();
+
+    private final Map<String, JarEntry> entriesByName = new HashMap<>(); // JarEntry is compared by identity
+
+    public InjectJarEntriesPhase() {
+        // Entries are added with entry(...) and entries(...).
+    }
+
+    public InjectJarEntriesPhase(@NonNull Map<JarEntry, byte[]> jarEntries) {
+        jarEntries.forEach((entry, bytes) -> entry(entry, EntryContent.of(bytes)));
+    }
+
+    public InjectJarEntriesPhase entry(@NonNull JarEntry entry, @NonNull EntryContent content) {
+        // Replaces an entry with the same name that has been added before.
+        JarEntry replaced = entriesByName.put(entry.getName(), entry);
+
+        if (replaced != null)
+            jarEntries.remove(replaced);
+
+        jarEntries.put(entry, content);
+        return this;
+    }
+
+    public InjectJarEntriesPhase entries(@NonNull Map<JarEntry, ? extends EntryContent> jarEntries) {
+        jarEntries.forEach(this::entry);
+        return this;
+    }
 
     @Override
     public Class<? super JarFileData> getTargetTypeClass() {
         return JarFileData.class;
     }
 
+    @Override
+    public Set<ClassDetail> getRequiredClassDetails() {
+        return ClassDetail.NONE; // disassembled classes are not touched
+    }
+
     @Override
     protected EmittedValue<? extends Void> execute(JarFileData target,
                                                    PhaseExecutionException error) throws Throwable {
@@ -48,6 +80,8 @@ public class InjectJarEntriesPhase extends Phase<JarFileData, Void> {
         if (target.getInjectedEntries() == null)
             target.setInjectedEntries(new HashMap<>());
 
+        // Entries injected before (e.g. by an earlier execution of this phase) are replaced by their names.
+        target.getInjectedEntries().keySet().removeIf(entry -> entriesByName.containsKey(entry.getName()));
         target.getInjectedEntries().putAll(jarEntries);
 
         return null; // success
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.phase.basic;
+
+import lombok.Getter;
+import lombok.NonNull;
+import me.darksidecode.jminima.phase.EmittedValue;
+import me.darksidecode.jminima.phase.Phase;
+import me.darksidecode.jminima.phase.PhaseExecutionException;
+import me.darksidecode.jminima.source.ArchiveClassSource;
+import me.darksidecode.jminima.source.ClassSource;
+import me.darksidecode.jminima.source.DirectoryClassSource;
+import me.darksidecode.jminima.source.FatJarClassSource;
+import me.darksidecode.jminima.source.JarClassSource;
+import me.darksidecode.jminima.zip.ZipArchiveUpdater;
+
+import java.io.File;
+import java.util.jar.JarFile;
+
+/*
+ * Opens a jar file, a directory or an archive in memory. Jar files of up to 2 GB are memory-mapped
+ * (see ArchiveClassSource), so that their entries are read without any I/O calls or stream copying.
+ */
+public class OpenClassSourcePhase extends Phase<Void, ClassSource> {
+
+    @Getter
+    private final File file; // a jar file or a directory; null = an archive in memory
+
+    private final String archiveName;
+
+    private final byte[] archive; // an archive in memory
+
+    private String nestedJarsPrefix; // null = not a fat jar
+
+    public OpenClassSourcePhase(@NonNull File file) {
+        this.file = file;
+        this.archiveName = null;
+        this.archive = null;
+    }
+
+    public OpenClassSourcePhase(@NonNull String archiveName, @NonNull byte[] archive) {
+        this.file = null;
+        this.archiveName = archiveName;
+        this.archive = archive;
+    }
+
+    public OpenClassSourcePhase nestedJars() {
+        return nestedJars(FatJarClassSource.SPRING_BOOT_LIB_PREFIX);
+    }
+
+    public OpenClassSourcePhase nestedJars(@NonNull String prefix) {
+        // Treat the jar file as a fat jar, with nested jars stored in entries with the given prefix.
+        this.nestedJarsPrefix = prefix;
+        return this;
+    }
+
+    @Override
+    public String getConfiguration() {
+        return nestedJarsPrefix != null ? "nested " + nestedJarsPrefix : "";
+    }
+
+    @Override
+    public Class<? super Void> getTargetTypeClass() {
+        return Void.class;
+    }
+
+    @Override
+    protected EmittedValue<? extends ClassSource> execute(Void target,
+                                                          PhaseExecutionException error) throws Throwable {
+        if (archive != null)
+            return new EmittedValue<>(new ArchiveClassSource(archiveName, archive));
+
+        if (file.isDirectory())
+            return file.canRead()
+                    ? new EmittedValue<>(new DirectoryClassSource(file))
+                    : new EmittedValue<>(new PhaseExecutionException(
+                            true, "target directory cannot be read from"));
+
+        if (!file.isFile())
+            return new EmittedValue<>(new PhaseExecutionException(
+                    true, "target file does not exist"));
+
+        if (!file.canRead())
+            return new EmittedValue<>(new PhaseExecutionException(
+                    true, "target file cannot be read from"));
+
+        ZipArchiveUpdater.recover(file.toPath()); // in case an update of it has been interrupted
+
+        // Only archives of up to 2 GB can be memory-mapped.
+        ClassSource source = file.length() > Integer.MAX_VALUE
+                ? new JarClassSource(new JarFile(file)) : new ArchiveClassSource(file);
+
+        return new EmittedValue<>(nestedJarsPrefix != null
+                ? new FatJarClassSource(source, nestedJarsPrefix) : source);
+    }
+
+}
@@ -16,18 +16,27 @@
 
 package me.darksidecode.jminima.phase.basic;
 
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import me.darksidecode.jminima.phase.EmittedValue;
 import me.darksidecode.jminima.phase.Phase;
 import me.darksidecode.jminima.phase.PhaseExecutionException;
+import me.darksidecode.jminima.zip.ZipArchiveUpdater;
 
 import java.io.File;
 import java.util.jar.JarFile;
 
+/*
+ * Opens a jar file as a JarFile, read through its streams. To have it memory-mapped instead (see
+ * ArchiveClassSource), open it with OpenClassSourcePhase, and use DisassembleSourcePhase and
+ * CloseClassSourcePhase in place of DisassemblePhase and CloseJarFilePhase - the rest of the workflow
+ * (which works with JarFileData) stays the same.
+ */
 @RequiredArgsConstructor
 public class OpenJarFilePhase extends Phase<Void, JarFile> {
 
+    @Getter
     @NonNull
     private final File file;
 
@@ -47,6 +56,7 @@ public class OpenJarFilePhase extends Phase<Void, JarFile> {
             return new EmittedValue<>(new PhaseExecutionException(
                     true, "target file cannot be read from"));
 
+        ZipArchiveUpdater.recover(file.toPath()); // in case an update of it has been interrupted
         JarFile jarFile = new JarFile(file);
 
         return file.canWrite()
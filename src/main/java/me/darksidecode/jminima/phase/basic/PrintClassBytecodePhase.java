@@ -61,6 +61,7 @@ public class PrintClassBytecodePhase extends Phase<JarFileData, Map<? extends Cl
 
         StringBuilder errMsgBuilder = new StringBuilder(DEFAULT_ERR_MSG_HEADER);
         Map<ClassNode, String> map = new HashMap<>();
+        WalkClassesPhase.materialize(target, null, errMsgBuilder); // all classes are printed
         boolean anySuccess = printBytecode(target.getClasses().keySet(), errMsgBuilder, map);
         String errMsg = errMsgBuilder.toString();
 
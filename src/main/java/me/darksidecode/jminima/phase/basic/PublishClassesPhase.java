@@ -0,0 +1,228 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.phase.basic;
+
+import lombok.NonNull;
+import me.darksidecode.jminima.JMinima;
+import me.darksidecode.jminima.disassembling.JavaDisassembler;
+import me.darksidecode.jminima.disassembling.LazyClass;
+import me.darksidecode.jminima.phase.EmittedValue;
+import me.darksidecode.jminima.phase.PhaseExecutionException;
+import me.darksidecode.jminima.util.ClassPool;
+import me.darksidecode.jminima.util.JarFileData;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.jar.JarFile;
+
+/*
+ * Like DisassemblePhase, but also publishes each class to the given subscribers as soon as it is disassembled
+ * (and collected, in order), so that they can process classes while the rest of the jar is being disassembled.
+ * Disassembling is paused whenever a subscriber falls behind by more than the buffer capacity (that is, until
+ * it requests more). A subscriber that does not accept a class, or does not complete, within the timeout is
+ * given up on (cancelled), and reported as an error. Classes cannot be disassembled lazily, as they are published.
+ *
+ * The phase completes (and emits JarFileData with all classes) once all subscribers have completed.
+ * All subscribers receive the same ClassNode instances, concurrently, so they must not modify classes
+ * if there are more than one of them.
+ */
+public class PublishClassesPhase extends AbstractDisassemblePhase<JarFile, PublishClassesPhase> {
+
+    private final List<Flow.Subscriber<? super ClassNode>> subscribers = new ArrayList<>();
+
+    private Executor deliveryExecutor; // null = default executor of SubmissionPublisher
+
+    private int bufferCapacity = Flow.defaultBufferSize();
+
+    private long timeoutMillis = TimeUnit.MINUTES.toMillis(1);
+
+    private SubmissionPublisher<ClassNode> publisher; // of the current execution
+
+    private List<TrackedSubscriber> trackedSubscribers; // of the current execution
+
+    public PublishClassesPhase(@NonNull Class<? extends JavaDisassembler> disassemblerClass) {
+        super(disassemblerClass, "jar file");
+    }
+
+    public PublishClassesPhase subscriber(@NonNull Flow.Subscriber<? super ClassNode> subscriber) {
+        subscribers.add(subscriber);
+        return this;
+    }
+
+    public PublishClassesPhase deliveryExecutor(@NonNull Executor deliveryExecutor, int bufferCapacity) {
+        // Deliver classes to subscribers in the given executor, buffering up to the given number of classes.
+        if (bufferCapacity < 1)
+            throw new IllegalArgumentException("buffer capacity must be positive");
+
+        this.deliveryExecutor = deliveryExecutor;
+        this.bufferCapacity = bufferCapacity;
+        return this;
+    }
+
+    public PublishClassesPhase timeout(long timeout, @NonNull TimeUnit unit) {
+        // Give up on subscribers that do not accept a class (or do not complete) within the given time.
+        if (timeout < 1)
+            throw new IllegalArgumentException("timeout must be positive");
+
+        timeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    @Override
+    public PublishClassesPhase lazy(boolean lazy) {
+        if (lazy)
+            throw new IllegalArgumentException("published classes cannot be disassembled lazily");
+
+        return this;
+    }
+
+    @Override
+    public Class<? super JarFile> getTargetTypeClass() {
+        return JarFile.class;
+    }
+
+    @Override
+    protected EmittedValue<? extends JarFileData> execute(JarFile target,
+                                                          PhaseExecutionException error) throws Throwable {
+        publisher = deliveryExecutor != null
+                ? new SubmissionPublisher<>(deliveryExecutor, bufferCapacity) : new SubmissionPublisher<>();
+        trackedSubscribers = new ArrayList<>();
+
+        try {
+            for (Flow.Subscriber<? super ClassNode> subscriber : subscribers) {
+                TrackedSubscriber trackedSubscriber = new TrackedSubscriber(subscriber);
+                trackedSubscribers.add(trackedSubscriber);
+                publisher.subscribe(trackedSubscriber);
+            }
+
+            return super.execute(target, error);
+        } finally {
+            publisher.close(); // if not closed yet (e.g. if disassembling has failed)
+            publisher = null;
+            trackedSubscribers = null;
+        }
+    }
+
+    @Override
+    protected JarFileData newJarFileData(JarFile target, ClassPool classes, Set<LazyClass> lazyClasses) {
+        return new JarFileData(target, classes, null, null, lazyClasses);
+    }
+
+    @Override
+    protected void collected(ClassNode cls, StringBuilder errMsgBuilder) {
+        // Blocks while the buffer of any subscriber is full, but not for longer than the timeout.
+        publisher.offer(cls, timeoutMillis, TimeUnit.MILLISECONDS, (subscriber, item) -> {
+            ((TrackedSubscriber) subscriber).cancel(new TimeoutException(
+                    "did not accept a class within " + timeoutMillis + " ms"));
+            return false; // do not retry
+        });
+    }
+
+    @Override
+    protected void disassembled(JarFileData jarFileData, StringBuilder errMsgBuilder) throws InterruptedException {
+        publisher.close(); // subscribers are completed after all buffered classes are delivered
+
+        for (TrackedSubscriber trackedSubscriber : trackedSubscribers) {
+            try {
+                trackedSubscriber.done.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                trackedSubscriber.cancel(ex);
+                errMsgBuilder.append("\n    - [subscriber ").append(trackedSubscriber.subscriber)
+                        .append("] did not complete within ").append(timeoutMillis).append(" ms");
+            } catch (ExecutionException ex) {
+                if (JMinima.debug) ex.getCause().printStackTrace();
+                errMsgBuilder.append("\n    - [subscriber ").append(trackedSubscriber.subscriber)
+                        .append("] ").append(ex.getCause());
+            }
+        }
+    }
+
+    // Completes (exceptionally, if the subscriber fails) once the subscriber is done with all classes.
+    private static final class TrackedSubscriber implements Flow.Subscriber<ClassNode> {
+        private final Flow.Subscriber<? super ClassNode> subscriber;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private volatile Flow.Subscription subscription; // null = not subscribed yet
+
+        private TrackedSubscriber(Flow.Subscriber<? super ClassNode> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            run(() -> subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    subscription.request(n);
+                }
+
+                @Override
+                public void cancel() {
+                    // The subscriber does not want any more classes - it is done.
+                    subscription.cancel();
+                    done.complete(null);
+                }
+            }));
+        }
+
+        @Override
+        public void onNext(ClassNode item) {
+            run(() -> subscriber.onNext(item));
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            run(() -> subscriber.onError(throwable));
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            run(subscriber::onComplete);
+            done.complete(null);
+        }
+
+        private void cancel(Throwable cause) {
+            // The subscriber is not given any more classes, but the others are.
+            done.completeExceptionally(cause);
+
+            if (subscription != null)
+                subscription.cancel();
+        }
+
+        private void run(Runnable signal) {
+            if (done.isDone())
+                return; // failed earlier
+
+            try {
+                signal.run();
+            } catch (Throwable t) {
+                cancel(t);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.phase.basic;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import me.darksidecode.jminima.JMinima;
+import me.darksidecode.jminima.phase.EmittedValue;
+import me.darksidecode.jminima.phase.Phase;
+import me.darksidecode.jminima.phase.PhaseExecutionException;
+import me.darksidecode.jminima.source.ClassSource;
+import me.darksidecode.jminima.source.DirectoryClassSource;
+import me.darksidecode.jminima.util.EntryContent;
+import me.darksidecode.jminima.util.JarFileData;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
+
+/*
+ * Saves JarFileData as an exploded directory tree (e.g. for "-cp dir/"), without any compression.
+ * All directories are created in advance, and then files are written concurrently, one task per entry.
+ * The tree is written to a temporary sibling of the output directory, which replaces the output directory
+ * only once all files are written, so a failed save leaves the previous output as it was. The source of
+ * the data cannot be (or be inside, or contain) the output directory, as it is read while saving.
+ *
+ * Unmodified entries that are already present in a previous output directory (with the same size,
+ * CRC and modification time - the time of the entry in the jar) can be hard-linked from there instead
+ * of being written again. Note that linked files share their contents with the previous output directory.
+ *
+ * Classes saved in directory entries (see JarFileData.isClassEntry) are written as regular class files.
+ * Entries are written once per path, so e.g. of "Foo.class" and "Foo.class/" only the first one is written
+ * (injected entries always win over the ones that existed before).
+ */
+@RequiredArgsConstructor
+public class SaveDirectoryPhase extends Phase<JarFileData, Void> {
+
+    private static final String DEFAULT_ERR_MSG_HEADER
+            = "the following errors occurred during directory saving:";
+
+    @NonNull
+    private final File outputDir;
+
+    private final boolean overwrite;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private File previousOutputDir;
+
+    public SaveDirectoryPhase threads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive");
+
+        this.threads = threads;
+        return this;
+    }
+
+    public SaveDirectoryPhase linkUnchanged(File previousOutputDir) {
+        // Hard-link unmodified entries from the given previous output directory (null = never link).
+        this.previousOutputDir = previousOutputDir;
+        return this;
+    }
+
+    @Override
+    public Class<? super JarFileData> getTargetTypeClass() {
+        return JarFileData.class;
+    }
+
+    @Override
+    protected EmittedValue<? extends Void> execute(JarFileData target,
+                                                   PhaseExecutionException error) throws Throwable {
+        if (target == null)
+            return new EmittedValue<>(new PhaseExecutionException(true, "failed to save directory", error));
+
+        if (outputDir.exists() && !overwrite)
+            return new EmittedValue<>(new PhaseExecutionException(
+                    true, "output directory already exists, and overwrite is set to false", error));
+
+        if (previousOutputDir != null && previousOutputDir.getAbsoluteFile().equals(outputDir.getAbsoluteFile()))
+            return new EmittedValue<>(new PhaseExecutionException(
+                    true, "previous output directory cannot be the output directory itself", error));
+
+        Path root = root();
+        Path sourceRoot = target.getSource() != null ? rootOf(target.getSource()) : null;
+
+        if (sourceRoot != null && (sourceRoot.startsWith(root) || root.startsWith(sourceRoot)))
+            return new EmittedValue<>(new PhaseExecutionException(true, "source " + sourceRoot
+                    + " cannot be (or be inside, or contain) the output directory", error));
+
+        StringBuilder errMsgBuilder = new StringBuilder(DEFAULT_ERR_MSG_HEADER);
+        Map<String, byte[]> modifiedClasses = SaveJarPhase.serializeModifiedClasses(target, errMsgBuilder);
+        String errMsg = errMsgBuilder.toString();
+
+        if (!errMsg.equals(DEFAULT_ERR_MSG_HEADER))
+            return new EmittedValue<>(new PhaseExecutionException(true, errMsg)); // nothing has been written
+
+        Files.createDirectories(root.getParent());
+        Path tempDir = Files.createTempDirectory(root.getParent(), root.getFileName() + ".");
+
+        try {
+            Map<Path, JarEntry> paths = new LinkedHashMap<>(); // output file -> entry
+            List<EntryTask> tasks = collectTasks(target, modifiedClasses, tempDir, paths, errMsgBuilder);
+            errMsg = errMsgBuilder.toString();
+
+            if (!errMsg.equals(DEFAULT_ERR_MSG_HEADER))
+                return new EmittedValue<>(new PhaseExecutionException(true, errMsg)); // nothing has been written
+
+            createDirectories(paths);
+            Map<String, Throwable> errors = writeFiles(tasks);
+
+            if (errors.isEmpty()) {
+                swapIn(tempDir, root);
+                return null; // success
+            }
+
+            errors.forEach((name, t) -> errMsgBuilder.append("\n    - [").append(name).append("] ").append(t));
+
+            // The output directory is left as it was.
+            return new EmittedValue<>(new PhaseExecutionException(true, errMsgBuilder.toString()));
+        } finally {
+            FileUtils.deleteQuietly(tempDir.toFile()); // unless it has been swapped in
+        }
+    }
+
+    private List<EntryTask> collectTasks(JarFileData jarFileData, Map<String, byte[]> modifiedClasses, Path root,
+                                         Map<Path, JarEntry> paths, StringBuilder errMsgBuilder) {
+        List<EntryTask> tasks = new ArrayList<>();
+        Map<JarEntry, EntryContent> injectedEntries = jarFileData.getInjectedEntries();
+
+        if (injectedEntries != null) {
+            // Add newly created entries - injected files. They take their paths first,
+            // so that entries they overwrite are skipped (they would be overwritten anyway).
+            for (Map.Entry<JarEntry, EntryContent> injected : injectedEntries.entrySet()) {
+                Path path = resolve(injected.getKey(), root, paths, errMsgBuilder);
+
+                if (path != null && !isDirectory(injected.getKey()))
+                    tasks.add(new EntryTask(injected.getKey().getName(),
+                            () -> writeContent(injected.getValue(), path)));
+            }
+        }
+
+        if (jarFileData.getSource() != null && jarFileData.getClasses() != null) {
+            // Process entries that existed before, on read.
+            ClassSource source = jarFileData.getSource();
+            Iterator<JarEntry> entries = source.stream().iterator();
+
+            while (entries.hasNext()) {
+                JarEntry sourceEntry = entries.next();
+                Path path = resolve(sourceEntry, root, paths, errMsgBuilder);
+
+                if (path == null || isDirectory(sourceEntry))
+                    continue;
+
+                byte[] modifiedClass = SaveJarPhase.modifiedClassOf(sourceEntry, modifiedClasses);
+
+                if (modifiedClass != null)
+                    tasks.add(new EntryTask(sourceEntry.getName(), () -> Files.write(path, modifiedClass)));
+                else
+                    tasks.add(new EntryTask(sourceEntry.getName(),
+                            () -> copyEntry(source, sourceEntry, root.relativize(path), path)));
+            }
+        }
+
+        return tasks;
+    }
+
+    private static Path resolve(JarEntry entry, Path root, Map<Path, JarEntry> paths, StringBuilder errMsgBuilder) {
+        // Null = the entry is not to be written, as its path is invalid, or already taken by another entry
+        // (e.g. "Foo.class" and "Foo.class/" are both written to "Foo.class").
+        Path path = root.resolve(entry.getName()).normalize();
+
+        if (!path.startsWith(root) || path.equals(root)) {
+            // Do not let entries like "../../file" escape the output directory.
+            errMsgBuilder.append("\n    - [").append(entry.getName())
+                    .append("] entry path is outside of the output directory");
+            return null;
+        }
+
+        return paths.putIfAbsent(path, entry) == null ? path : null;
+    }
+
+    private static void createDirectories(Map<Path, JarEntry> paths) throws IOException {
+        Set<Path> dirs = new TreeSet<>(); // parents are created along with their children anyway
+
+        for (Map.Entry<Path, JarEntry> entry : paths.entrySet())
+            dirs.add(isDirectory(entry.getValue()) ? entry.getKey() : entry.getKey().getParent());
+
+        for (Path dir : dirs)
+            Files.createDirectories(dir);
+    }
+
+    private static void swapIn(Path tempDir, Path root) throws IOException {
+        // Both are in the same directory, so they are just renamed. The previous output (if any)
+        // is moved aside first, and only deleted once the new one is in place.
+        Path previous = null;
+
+        if (Files.exists(root)) {
+            previous = Files.createTempDirectory(root.getParent(), root.getFileName() + ".old.");
+            Files.move(root, previous, StandardCopyOption.REPLACE_EXISTING); // replaces the empty directory
+        }
+
+        Files.move(tempDir, root);
+
+        if (previous != null)
+            FileUtils.forceDelete(previous.toFile());
+    }
+
+    private Map<String, Throwable> writeFiles(List<EntryTask> tasks) throws InterruptedException {
+        Map<String, Throwable> errors = new ConcurrentSkipListMap<>(); // sorted for stable error messages
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "jminima-directory-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<Future<?>> futures = new ArrayList<>(tasks.size());
+
+            for (EntryTask task : tasks)
+                futures.add(executor.submit(() -> {
+                    try {
+                        task.action.run();
+                    } catch (Throwable t) {
+                        if (JMinima.debug) t.printStackTrace();
+                        errors.put(task.name, t);
+                    }
+                }));
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    throw new IllegalStateException("unexpected task failure", ex); // all errors are caught
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return errors;
+    }
+
+    private void copyEntry(ClassSource source, JarEntry entry, Path relativePath, Path path) throws IOException {
+        long time = entry.getTime();
+
+        if (previousOutputDir != null && time != -1 && entry.getCrc() != -1) {
+            Path previous = previousOutputDir.toPath().resolve(relativePath);
+
+            try {
+                // Timestamps of entries are often pinned (reproducible builds), so the contents are compared too.
+                if (Files.isRegularFile(previous) && Files.size(previous) == entry.getSize()
+                        && Files.getLastModifiedTime(previous).toMillis() == time
+                        && crcOf(previous) == entry.getCrc()) {
+                    Files.createLink(path, previous);
+                    return;
+                }
+            } catch (IOException | UnsupportedOperationException ex) {
+                // Not linkable (e.g. another file system) - copy it.
+                if (JMinima.debug) ex.printStackTrace();
+            }
+        }
+
+        try (InputStream in = source.getInputStream(entry)) {
+            Files.copy(in, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // Only unmodified entries get the time of the entry, so that modified
+        // ones are never mistaken for unmodified ones in subsequent saves.
+        if (time != -1)
+            Files.setLastModifiedTime(path, FileTime.fromMillis(time));
+    }
+
+    private static void writeContent(EntryContent content, Path path) throws IOException {
+        // Contents of files are transferred right between the files, without copying them through the heap.
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            content.transferTo(channel);
+        }
+    }
+
+    private static boolean isDirectory(JarEntry entry) {
+        return entry.isDirectory() && !JarFileData.isClassEntry(entry);
+    }
+
+    private static long crcOf(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[8192];
+
+        try (InputStream in = Files.newInputStream(path)) {
+            int n;
+
+            while ((n = in.read(buffer)) != -1)
+                crc.update(buffer, 0, n);
+        }
+
+        return crc.getValue();
+    }
+
+    private Path root() {
+        return outputDir.toPath().toAbsolutePath().normalize();
+    }
+
+    private static Path rootOf(ClassSource source) {
+        // The file or directory entries of the given source are read from (null = none, e.g. an archive in memory).
+        if (source instanceof DirectoryClassSource)
+            return ((DirectoryClassSource) source).getRoot();
+
+        return source.getFile() != null ? source.getFile().toPath().toAbsolutePath().normalize() : null;
+    }
+
+    @RequiredArgsConstructor
+    private static final class EntryTask {
+        private final String name;
+        private final IOAction action;
+    }
+
+    private interface IOAction {
+        void run() throws IOException;
+    }
+
+}
@@ -18,29 +18,111 @@ package me.darksidecode.jminima.phase.basic;
 
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import me.darksidecode.jminima.JMinima;
+import me.darksidecode.jminima.disassembling.LazyClass;
 import me.darksidecode.jminima.phase.EmittedValue;
 import me.darksidecode.jminima.phase.Phase;
 import me.darksidecode.jminima.phase.PhaseExecutionException;
+import me.darksidecode.jminima.source.ClassSource;
+import me.darksidecode.jminima.util.ClassPool;
+import me.darksidecode.jminima.util.EntryContent;
 import me.darksidecode.jminima.util.JarFileData;
+import me.darksidecode.jminima.zip.ArchiveEntry;
+import me.darksidecode.jminima.zip.CompressionPolicy;
+import me.darksidecode.jminima.zip.ParallelZipArchiveWriter;
+import me.darksidecode.jminima.zip.ZipArchive;
+import me.darksidecode.jminima.zip.ZipArchiveWriter;
+import me.darksidecode.jminima.zip.ZipRecord;
 import org.apache.commons.io.IOUtils;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.tree.ClassNode;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Enumeration;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
 
-@RequiredArgsConstructor
 public class SaveJarPhase extends Phase<JarFileData, Void> {
 
-    @NonNull
-    private final File outputFile;
+    private static final String DEFAULT_ERR_MSG_HEADER
+            = "the following errors occurred during modified classes serialization:";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String NESTED_CLASS_ERR_MSG
+            = "modified classes of nested sources cannot be saved, as nested sources are saved as they are";
+
+    private final File outputFile; // null = save to outputChannel
 
     private final boolean overwrite;
 
+    private final WritableByteChannel outputChannel; // not closed, as it is owned by the caller
+
+    private final OutputStream outputStream; // flushed after saving, if outputChannel wraps it
+
+    private boolean rawCopyUnmodified;
+
+    private CompressionPolicy compressionPolicy;
+
+    private int threads; // 0 = save through a JarOutputStream on the calling thread
+
+    public SaveJarPhase(@NonNull File outputFile, boolean overwrite) {
+        this.outputFile = outputFile;
+        this.overwrite = overwrite;
+        this.outputChannel = null;
+        this.outputStream = null;
+    }
+
+    public SaveJarPhase(@NonNull WritableByteChannel outputChannel) {
+        this.outputFile = null;
+        this.overwrite = false;
+        this.outputChannel = outputChannel;
+        this.outputStream = null;
+    }
+
+    public SaveJarPhase(@NonNull OutputStream outputStream) {
+        this.outputFile = null;
+        this.overwrite = false;
+        this.outputChannel = Channels.newChannel(outputStream);
+        this.outputStream = outputStream;
+    }
+
+    public SaveJarPhase rawCopyUnmodified(boolean rawCopyUnmodified) {
+        // Copy compressed data of unmodified entries as is, without inflating and deflating it again.
+        this.rawCopyUnmodified = rawCopyUnmodified;
+        return this;
+    }
+
+    public SaveJarPhase compressionPolicy(CompressionPolicy compressionPolicy) {
+        // Decide how entries are compressed (null = deflate all entries with the default level).
+        this.compressionPolicy = compressionPolicy;
+        return this;
+    }
+
+    public SaveJarPhase threads(int threads) {
+        // Compress entries on the given number of threads. The output does not depend on this number.
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive");
+
+        this.threads = threads;
+        return this;
+    }
+
     @Override
     public Class<? super JarFileData> getTargetTypeClass() {
         return JarFileData.class;
@@ -52,55 +134,147 @@ public class SaveJarPhase extends Phase<JarFileData, Void> {
         if (target == null)
             return new EmittedValue<>(new PhaseExecutionException(true, "failed to save jar", error));
 
-        if (outputFile.exists()) {
-            if (overwrite) {
-                if (!outputFile.delete())
-                    return new EmittedValue<>(new PhaseExecutionException(
-                            true, "output file already exists, and cannot be overwritten (deleted)", error));
-            } else
+        if (outputFile != null && outputFile.exists() && !overwrite)
+            return new EmittedValue<>(new PhaseExecutionException(
+                    true, "output file already exists, and overwrite is set to false", error));
+
+        // Serialize all modified classes in advance, so that saving itself is only busy with I/O.
+        StringBuilder errMsgBuilder = new StringBuilder(DEFAULT_ERR_MSG_HEADER);
+        Map<String, byte[]> modifiedClasses = serializeModifiedClasses(target, errMsgBuilder);
+        String errMsg = errMsgBuilder.toString();
+
+        if (!errMsg.equals(DEFAULT_ERR_MSG_HEADER))
+            return new EmittedValue<>(new PhaseExecutionException(true, errMsg)); // nothing has been written
+
+        // Opened before the output file is possibly deleted, as it may be the source jar itself.
+        ClassSource source = target.getSource();
+        ZipArchive rawSource = rawCopyUnmodified ? openRawSource(target, source) : null;
+
+        try {
+            if (outputFile == null) {
+                // Records are collected in a direct buffer, and written to the channel in large chunks.
+                saveJarRecords(target, modifiedClasses, rawSource, new UnclosableChannel(outputChannel));
+
+                if (outputStream != null)
+                    outputStream.flush();
+
+                return null; // success
+            }
+
+            if (outputFile.exists() && !outputFile.delete())
                 return new EmittedValue<>(new PhaseExecutionException(
-                        true, "output file already exists, and overwrite is set to false", error));
-        }
+                        true, "output file already exists, and cannot be overwritten (deleted)", error));
 
-        saveJar(target);
+            if (rawCopyUnmodified || threads > 0 || compressionPolicy != null)
+                saveJarRecords(target, modifiedClasses, rawSource, FileChannel.open(outputFile.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+            else
+                saveJar(target, modifiedClasses);
+        } finally {
+            if (rawSource != null && rawSource != source.getArchive())
+                rawSource.close();
+        }
 
         return null; // success
     }
 
-    private void saveJar(JarFileData jarFileData) throws IOException {
-        try (JarOutputStream stream = new JarOutputStream(new FileOutputStream(outputFile))) {
+    static Map<String, byte[]> serializeModifiedClasses(JarFileData jarFileData,
+                                                        StringBuilder errMsgBuilder) {
+        Map<String, byte[]> modifiedClasses = new ConcurrentHashMap<>();
+
+        if (jarFileData.getClasses() == null)
+            return modifiedClasses;
+
+        Map<String, Throwable> errors = new ConcurrentSkipListMap<>(); // sorted for stable error messages
+        ClassPool classes = jarFileData.getClasses();
+
+        classes.getModified().stream().parallel()
+                .forEach(id -> {
+                    ClassNode cls = classes.get(id);
+
+                    if (classes.isNested(id)) {
+                        // Nested sources (e.g. jars inside a fat jar) are saved as they are.
+                        errors.put(String.valueOf(cls.name),
+                                new UnsupportedOperationException(NESTED_CLASS_ERR_MSG));
+                        return;
+                    }
+
+                    try {
+                        modifiedClasses.put(cls.name, ClassPool.serialize(cls, new ClassWriter(0)));
+                    } catch (Throwable t) {
+                        if (JMinima.debug) t.printStackTrace();
+                        errors.put(String.valueOf(cls.name), t);
+                    }
+                });
+
+        if (jarFileData.getLazyClasses() != null) {
+            // Modified classes evicted to stay within the memory budget are saved without being disassembled.
+            for (LazyClass cls : jarFileData.getLazyClasses()) {
+                if (cls.isModified() && cls.isNested())
+                    errors.put(cls.getName(), new UnsupportedOperationException(NESTED_CLASS_ERR_MSG));
+                else if (cls.isModified()) {
+                    try {
+                        modifiedClasses.put(cls.getName(), cls.getBytes());
+                    } catch (Throwable t) {
+                        if (JMinima.debug) t.printStackTrace();
+                        errors.put(cls.getName(), t);
+                    }
+                }
+            }
+        }
+
+        errors.forEach((name, t) -> errMsgBuilder.append("\n    - [").append(name).append("] ").append(t));
+
+        return modifiedClasses;
+    }
+
+    private static ZipArchive openRawSource(JarFileData jarFileData, ClassSource source) throws IOException {
+        if (source == null || jarFileData.getClasses() == null)
+            return null;
+
+        if (source.getArchive() != null)
+            return source.getArchive();
+
+        // Raw (compressed) data of entries is only accessible through a ZipArchive, so the archive file (if any)
+        // is mapped. Entries of archives that cannot be mapped are recompressed.
+        File file = source.getFile();
+
+        return file != null && file.length() <= Integer.MAX_VALUE ? ZipArchive.map(file) : null;
+    }
+
+    private void saveJar(JarFileData jarFileData, Map<String, byte[]> modifiedClasses) throws IOException {
+        try (JarOutputStream stream = new JarOutputStream(
+                new BufferedOutputStream(new FileOutputStream(outputFile), BUFFER_SIZE))) {
             if (jarFileData.getInjectedEntries() != null) {
                 // Add newly created entries - injected files.
                 for (JarEntry outputEntry : jarFileData.getInjectedEntries().keySet()) {
                     stream.putNextEntry(outputEntry);
-                    stream.write(jarFileData.getInjectedEntries().get(outputEntry));
+                    jarFileData.getInjectedEntries().get(outputEntry).transferTo(Channels.newChannel(stream));
                     stream.closeEntry();
                 }
             }
 
-            if (jarFileData.getJarFile() != null && jarFileData.getClasses() != null) {
+            if (jarFileData.getSource() != null && jarFileData.getClasses() != null) {
                 // Process entries that existed before, on read. Modified entries will
                 // be overwritten, and non-modified entries will be copied as is.
-                Enumeration<JarEntry> entries = jarFileData.getJarFile().entries();
+                ClassSource source = jarFileData.getSource();
+                Iterator<JarEntry> entries = source.stream().iterator();
 
-                while (entries.hasMoreElements()) {
-                    JarEntry sourceEntry = entries.nextElement();
+                while (entries.hasNext()) {
+                    JarEntry sourceEntry = entries.next();
                     String name = sourceEntry.getName();
                     JarEntry outputEntry = new JarEntry(name);
                     stream.putNextEntry(outputEntry);
+                    byte[] modifiedClass = modifiedClassOf(sourceEntry, modifiedClasses);
 
-                    ClassNode correspondingClass = jarFileData.getClasses().keySet().stream()
-                            .filter(cls -> name.equals(cls.name + ".class") || name.equals(cls.name + ".class/"))
-                            .findAny().orElse(null);
-
-                    if (correspondingClass != null && jarFileData.getClasses().get(correspondingClass)) {
-                        // Serialize the modified ClassNode and overwrite it.
-                        ClassWriter writer = new ClassWriter(0);
-                        correspondingClass.accept(writer);
-                        stream.write(writer.toByteArray());
-                    } else
+                    if (modifiedClass != null)
+                        // Overwrite the modified class.
+                        stream.write(modifiedClass);
+                    else
                         // Copy the entry as is.
-                        IOUtils.copy(jarFileData.getJarFile().getInputStream(sourceEntry), stream);
+                        try (InputStream sourceStream = source.getInputStream(sourceEntry)) {
+                            IOUtils.copy(sourceStream, stream);
+                        }
 
                     stream.closeEntry();
                 }
@@ -108,4 +282,89 @@ public class SaveJarPhase extends Phase<JarFileData, Void> {
         }
     }
 
+    private void saveJarRecords(JarFileData jarFileData, Map<String, byte[]> modifiedClasses,
+                                ZipArchive rawSource, WritableByteChannel channel) throws IOException {
+        long now = System.currentTimeMillis();
+        ZipArchiveWriter zipWriter = new ZipArchiveWriter(channel);
+
+        try (ParallelZipArchiveWriter writer = new ParallelZipArchiveWriter(zipWriter, Math.max(1, threads))) {
+            if (jarFileData.getInjectedEntries() != null) {
+                // Add newly created entries - injected files.
+                for (JarEntry outputEntry : jarFileData.getInjectedEntries().keySet()) {
+                    EntryContent content = jarFileData.getInjectedEntries().get(outputEntry);
+                    writer.submit(deflater -> injectedRecordOf(outputEntry, now, content, deflater, compressionPolicy));
+                }
+            }
+
+            if (jarFileData.getSource() != null && jarFileData.getClasses() != null) {
+                // Process entries that existed before, on read. Modified entries will be overwritten,
+                // and non-modified entries will be copied as is (if possible, without recompression).
+                ClassSource source = jarFileData.getSource();
+                Iterator<JarEntry> entries = rawSource != null
+                        ? rawSource.stream().iterator() : source.stream().iterator();
+
+                while (entries.hasNext()) {
+                    JarEntry sourceEntry = entries.next();
+                    byte[] modifiedClass = modifiedClassOf(sourceEntry, modifiedClasses);
+
+                    if (modifiedClass != null)
+                        // Overwrite the modified class.
+                        writer.submit(deflater -> recordOf(sourceEntry, now, modifiedClass, deflater));
+                    else if (rawSource != null)
+                        // Copy the entry as is, without recompression.
+                        writer.write(ZipRecord.copyOf(rawSource, (ArchiveEntry) sourceEntry));
+                    else
+                        // Copy the entry as is.
+                        writer.submit(deflater -> {
+                            try (InputStream sourceStream = source.getInputStream(sourceEntry)) {
+                                return recordOf(sourceEntry, now, IOUtils.toByteArray(sourceStream), deflater);
+                            }
+                        });
+                }
+            }
+        }
+    }
+
+    private ZipRecord recordOf(JarEntry entry, long now, byte[] bytes, Deflater deflater) {
+        return compressionPolicy != null
+                ? ZipRecord.compress(entry, now, bytes, deflater, compressionPolicy)
+                : ZipRecord.deflate(entry, now, bytes, deflater);
+    }
+
+    static ZipRecord injectedRecordOf(JarEntry entry, long now, EntryContent content,
+                                      Deflater deflater, CompressionPolicy compressionPolicy) throws IOException {
+        // Entries explicitly marked as stored are transferred as is (e.g. already compressed files).
+        if (entry.getMethod() == ZipEntry.STORED)
+            return ZipRecord.store(entry, now, content);
+
+        return compressionPolicy != null
+                ? ZipRecord.compress(entry, now, content, deflater, compressionPolicy)
+                : ZipRecord.deflate(entry, now, content, deflater);
+    }
+
+    static byte[] modifiedClassOf(JarEntry entry, Map<String, byte[]> modifiedClasses) {
+        String className = JarFileData.getClassName(entry);
+        return className != null ? modifiedClasses.get(className) : null;
+    }
+
+    @RequiredArgsConstructor
+    private static final class UnclosableChannel implements WritableByteChannel {
+        private final WritableByteChannel channel;
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // The channel is owned by the caller.
+        }
+    }
+
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.phase.basic;
+
+import me.darksidecode.jminima.phase.EmittedValue;
+import me.darksidecode.jminima.phase.Phase;
+import me.darksidecode.jminima.phase.PhaseExecutionException;
+import me.darksidecode.jminima.util.JarFileData;
+import me.darksidecode.jminima.zip.CompressionPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+// Saves the jar into a heap buffer, emitted as the result (e.g. to define classes from, or to send elsewhere).
+public class SaveJarToMemoryPhase extends Phase<JarFileData, ByteBuffer> {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 64 * 1024;
+
+    private boolean rawCopyUnmodified;
+
+    private CompressionPolicy compressionPolicy;
+
+    private int threads;
+
+    private int initialCapacity; // 0 = size of the source jar file, if any
+
+    public SaveJarToMemoryPhase rawCopyUnmodified(boolean rawCopyUnmodified) {
+        this.rawCopyUnmodified = rawCopyUnmodified;
+        return this;
+    }
+
+    public SaveJarToMemoryPhase compressionPolicy(CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+        return this;
+    }
+
+    public SaveJarToMemoryPhase threads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive");
+
+        this.threads = threads;
+        return this;
+    }
+
+    public SaveJarToMemoryPhase initialCapacity(int initialCapacity) {
+        if (initialCapacity < 1)
+            throw new IllegalArgumentException("initial capacity must be positive");
+
+        this.initialCapacity = initialCapacity;
+        return this;
+    }
+
+    @Override
+    public Class<? super JarFileData> getTargetTypeClass() {
+        return JarFileData.class;
+    }
+
+    @Override
+    protected EmittedValue<? extends ByteBuffer> execute(JarFileData target,
+                                                         PhaseExecutionException error) throws Throwable {
+        if (target == null)
+            return new EmittedValue<>(new PhaseExecutionException(true, "failed to save jar", error));
+
+        HeapChannel channel = new HeapChannel(initialCapacityFor(target));
+        SaveJarPhase saveJarPhase = new SaveJarPhase(channel)
+                .rawCopyUnmodified(rawCopyUnmodified)
+                .compressionPolicy(compressionPolicy);
+
+        if (threads > 0)
+            saveJarPhase.threads(threads);
+
+        EmittedValue<? extends Void> result = saveJarPhase.execute(target, error);
+
+        if (result != null && result.getError() != null)
+            return new EmittedValue<>(result.getError());
+
+        return new EmittedValue<>(channel.toByteBuffer()); // success
+    }
+
+    private int initialCapacityFor(JarFileData jarFileData) {
+        if (initialCapacity > 0)
+            return initialCapacity;
+
+        // The output is usually about as large as the source jar file.
+        File sourceFile = jarFileData.getSource() != null ? jarFileData.getSource().getFile() : null;
+        long sourceSize = sourceFile != null ? sourceFile.length() : 0;
+
+        return (int) Math.min(Math.max(sourceSize, DEFAULT_INITIAL_CAPACITY), Integer.MAX_VALUE - 8);
+    }
+
+    private static final class HeapChannel implements WritableByteChannel {
+        private byte[] array;
+
+        private int size;
+
+        private HeapChannel(int initialCapacity) {
+            array = new byte[initialCapacity];
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int len = src.remaining();
+
+            if (len > array.length - size) {
+                if (len > Integer.MAX_VALUE - 8 - size)
+                    throw new IOException("jar is too large to be saved in memory");
+
+                long grown = Math.max((long) array.length * 2, (long) size + len);
+                byte[] newArray = new byte[(int) Math.min(grown, Integer.MAX_VALUE - 8)];
+                System.arraycopy(array, 0, newArray, 0, size);
+                array = newArray;
+            }
+
+            src.get(array, size, len);
+            size += len;
+
+            return len;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to close.
+        }
+
+        private ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(array, 0, size);
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.phase.basic;
+
+import lombok.NonNull;
+import me.darksidecode.jminima.JMinima;
+import me.darksidecode.jminima.disassembling.JavaDisassembler;
+import me.darksidecode.jminima.phase.EmittedValue;
+import me.darksidecode.jminima.phase.Phase;
+import me.darksidecode.jminima.phase.PhaseExecutionException;
+import me.darksidecode.jminima.source.ClassSource;
+import me.darksidecode.jminima.util.EntryContent;
+import me.darksidecode.jminima.util.JarFileData;
+import me.darksidecode.jminima.walking.ClassWalker;
+import me.darksidecode.jminima.zip.ArchiveEntry;
+import me.darksidecode.jminima.zip.ParallelZipArchiveWriter;
+import me.darksidecode.jminima.zip.ZipArchive;
+import me.darksidecode.jminima.zip.ZipArchiveWriter;
+import me.darksidecode.jminima.zip.ZipRecord;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.jar.JarEntry;
+import java.util.zip.Deflater;
+
+/*
+ * Disassembles, walks, serializes and saves classes one by one, streaming them from the
+ * target source (e.g. a jar file opened with OpenClassSourcePhase) into the output file. Unlike
+ * DisassemblePhase -> WalkClassesPhase -> SaveJarPhase, only a bounded window of classes (a few
+ * per thread) is ever held in memory at the same time. Entries of nested sources are not transformed.
+ */
+public class TransformJarPhase extends Phase<ClassSource, Void> {
+
+    private static final String DEFAULT_ERR_MSG_HEADER
+            = "the following errors occurred during jar transformation:";
+
+    private final DisassemblerConstructor disassemblerConstructor;
+
+    private final Constructor<? extends ClassWalker> walkerConstructor;
+
+    private final File outputFile;
+
+    private final boolean overwrite;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public TransformJarPhase(@NonNull Class<? extends JavaDisassembler> disassemblerClass,
+                             @NonNull Class<? extends ClassWalker> walkerClass,
+                             @NonNull File outputFile, boolean overwrite) {
+        disassemblerConstructor = new DisassemblerConstructor(disassemblerClass);
+
+        try {
+            walkerConstructor = walkerClass.getConstructor(ClassNode.class);
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalArgumentException(
+                    "invalid ClassWalker: missing single-argument " +
+                            "constructor with parameter of type ClassNode", ex);
+        }
+
+        this.outputFile = outputFile;
+        this.overwrite = overwrite;
+    }
+
+    public TransformJarPhase threads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive");
+
+        this.threads = threads;
+        return this;
+    }
+
+    @Override
+    public String getConfiguration() {
+        return disassemblerConstructor.getDisassemblerName()
+                + " " + walkerConstructor.getDeclaringClass().getName();
+    }
+
+    @Override
+    public Class<? super ClassSource> getTargetTypeClass() {
+        return ClassSource.class;
+    }
+
+    @Override
+    protected EmittedValue<? extends Void> execute(ClassSource target,
+                                                   PhaseExecutionException error) throws Throwable {
+        if (target == null)
+            return new EmittedValue<>(new PhaseExecutionException(
+                    true, "failed to transform the target jar file", error));
+
+        if (outputFile.exists() && !overwrite)
+            return new EmittedValue<>(new PhaseExecutionException(
+                    true, "output file already exists, and overwrite is set to false", error));
+
+        // The target is left open, and is still read from if the output file is the source jar itself
+        // (which is deleted, but stays readable through the already opened target).
+        Queue<JavaDisassembler> disassemblers = new ConcurrentLinkedQueue<>(); // one per thread at most
+
+        try {
+            disassemblers.add(disassemblerConstructor.newInstance(target));
+        } catch (ReflectiveOperationException ex) {
+            if (JMinima.debug) ex.printStackTrace();
+            return new EmittedValue<>(new PhaseExecutionException(
+                    true, DEFAULT_ERR_MSG_HEADER + "\n    - " + ex)); // fatal error
+        }
+
+        if (outputFile.exists() && !outputFile.delete())
+            return new EmittedValue<>(new PhaseExecutionException(
+                    true, "output file already exists, and cannot be overwritten (deleted)", error));
+
+        Map<Integer, String> errors = new ConcurrentSkipListMap<>(); // entry index -> errors
+        transform(target, disassemblers, errors);
+
+        if (errors.isEmpty())
+            return null; // full success
+
+        StringBuilder errMsgBuilder = new StringBuilder(DEFAULT_ERR_MSG_HEADER);
+        errors.values().forEach(errMsgBuilder::append);
+
+        return new EmittedValue<>(new PhaseExecutionException(false, errMsgBuilder.toString())); // error(s)
+    }
+
+    private void transform(ClassSource target, Queue<JavaDisassembler> disassemblers,
+                           Map<Integer, String> errors) throws IOException {
+        long now = System.currentTimeMillis();
+        ZipArchiveWriter zipWriter = new ZipArchiveWriter(FileChannel.open(outputFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+
+        // The writer only lets a bounded number of entries be in progress at the same time,
+        // so reading of further entries is blocked until the oldest ones have been written.
+        try (ParallelZipArchiveWriter writer = new ParallelZipArchiveWriter(zipWriter, threads)) {
+            ZipArchive archive = target.getArchive(); // null = entries are recompressed
+            Iterator<JarEntry> entries = archive != null ? archive.stream().iterator() : target.stream().iterator();
+            int index = 0;
+
+            while (entries.hasNext()) {
+                JarEntry entry = entries.next();
+
+                if (JarFileData.isClassEntry(entry)) {
+                    int entryIndex = index++;
+                    writer.submit(deflater -> transformClass(
+                            target, entry, entryIndex, disassemblers, errors, deflater, now));
+                } else if (archive != null)
+                    // Resources are copied as is, without recompression.
+                    writer.write(ZipRecord.copyOf(archive, (ArchiveEntry) entry));
+                else
+                    writer.submit(deflater -> copyOf(target, entry, deflater, now));
+            }
+        }
+    }
+
+    private ZipRecord transformClass(ClassSource target, JarEntry entry, int entryIndex,
+                                     Queue<JavaDisassembler> disassemblers, Map<Integer, String> errors,
+                                     Deflater deflater, long now) throws IOException {
+        StringBuilder errMsgBuilder = new StringBuilder();
+        JavaDisassembler disassembler = disassemblers.poll();
+
+        try {
+            if (disassembler == null)
+                disassembler = disassemblerConstructor.newInstance(target);
+
+            EmittedValue<? extends ClassNode> cls = disassembler.disassemble(entry);
+
+            if (cls != null) {
+                if (cls.getError() != null) {
+                    if (JMinima.debug) cls.getError().printStackTrace();
+                    errMsgBuilder.append("\n    - ").append(cls.getError());
+                } else if ((cls.getValue().name.equals("java/lang/Object") || cls.getValue().superName != null)
+                        && WalkClassesPhase.walkClass(walkerConstructor, cls.getValue(), errMsgBuilder)) {
+                    byte[] bytes;
+
+                    try {
+                        // Serialize the modified ClassNode and overwrite it.
+                        ClassWriter writer = new ClassWriter(0);
+                        cls.getValue().accept(writer);
+                        bytes = writer.toByteArray();
+                    } catch (Throwable t) {
+                        if (JMinima.debug) t.printStackTrace();
+                        errMsgBuilder.append("\n    - [serialize: ")
+                                .append(cls.getValue().name).append("] ").append(t);
+                        bytes = null;
+                    }
+
+                    if (bytes != null)
+                        return ZipRecord.deflate(entry, now, bytes, deflater);
+                }
+            }
+        } catch (ReflectiveOperationException ex) {
+            if (JMinima.debug) ex.printStackTrace();
+            errMsgBuilder.append("\n    - ").append(ex);
+        } finally {
+            if (disassembler != null)
+                disassemblers.offer(disassembler);
+
+            if (errMsgBuilder.length() > 0)
+                errors.put(entryIndex, errMsgBuilder.toString());
+        }
+
+        // Copy unmodified (or failed) classes as is.
+        return copyOf(target, entry, deflater, now);
+    }
+
+    private static ZipRecord copyOf(ClassSource source, JarEntry entry,
+                                    Deflater deflater, long now) throws IOException {
+        // Without recompression if the source is an archive, or recompressed while being read otherwise.
+        if (source.getArchive() != null)
+            return ZipRecord.copyOf(source.getArchive(), (ArchiveEntry) entry);
+
+        return ZipRecord.deflate(entry, now, EntryContent.of(
+                () -> Channels.newChannel(source.getInputStream(entry))), deflater);
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.phase.basic;
+
+import me.darksidecode.jminima.JMinima;
+import me.darksidecode.jminima.phase.EmittedValue;
+import me.darksidecode.jminima.phase.Phase;
+import me.darksidecode.jminima.phase.PhaseExecutionException;
+import me.darksidecode.jminima.source.ClassSource;
+import me.darksidecode.jminima.util.EntryContent;
+import me.darksidecode.jminima.util.JarFileData;
+import me.darksidecode.jminima.zip.ZipArchiveUpdater;
+import me.darksidecode.jminima.zip.ZipRecord;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.zip.Deflater;
+
+/*
+ * Saves modified classes and injected entries directly into the source jar file, instead of
+ * writing a complete copy of it (see ZipArchiveUpdater). Unmodified entries are not read or
+ * written at all. The source (e.g. a JarFile) is left open: as the updater never moves or overwrites
+ * data of existing entries, it keeps reading the contents the jar had before the update.
+ *
+ * Data of replaced entries stays in the jar, so once too much of it is such stale data, the whole jar is
+ * rewritten without it (see ZipArchiveUpdater#compact). The rewritten jar replaces the old file, which
+ * the source (if still open) keeps reading.
+ */
+public class UpdateJarPhase extends Phase<JarFileData, Void> {
+
+    private static final String DEFAULT_ERR_MSG_HEADER
+            = "the following errors occurred during modified classes serialization:";
+
+    private static final double DEFAULT_MAX_STALE_RATIO = 0.5;
+
+    private double maxStaleRatio = DEFAULT_MAX_STALE_RATIO; // 1 = never compact
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public UpdateJarPhase compactAbove(double maxStaleRatio) {
+        // Compact the jar once more than the given part of it is stale (0 = after every update, 1 = never).
+        if (maxStaleRatio < 0 || maxStaleRatio > 1)
+            throw new IllegalArgumentException("max stale ratio must be between 0 and 1");
+
+        this.maxStaleRatio = maxStaleRatio;
+        return this;
+    }
+
+    public UpdateJarPhase threads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive");
+
+        this.threads = threads;
+        return this;
+    }
+
+    @Override
+    public Class<? super JarFileData> getTargetTypeClass() {
+        return JarFileData.class;
+    }
+
+    @Override
+    protected EmittedValue<? extends Void> execute(JarFileData target,
+                                                   PhaseExecutionException error) throws Throwable {
+        ClassSource source = target != null ? target.getSource() : null;
+
+        if (source == null || source.getFile() == null)
+            return new EmittedValue<>(new PhaseExecutionException(true, "failed to update jar", error));
+
+        StringBuilder errMsgBuilder = new StringBuilder(DEFAULT_ERR_MSG_HEADER);
+        Map<String, byte[]> modifiedClasses = SaveJarPhase.serializeModifiedClasses(target, errMsgBuilder);
+        String errMsg = errMsgBuilder.toString();
+
+        if (!errMsg.equals(DEFAULT_ERR_MSG_HEADER))
+            return new EmittedValue<>(new PhaseExecutionException(true, errMsg)); // nothing has been written
+
+        List<ZipRecord> records = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+        try {
+            if (!modifiedClasses.isEmpty()) {
+                // Modified classes replace their original entries (keeping their timestamps, for instance).
+                Iterator<JarEntry> entries = source.stream().iterator();
+
+                while (entries.hasNext()) {
+                    JarEntry sourceEntry = entries.next();
+                    byte[] modifiedClass = SaveJarPhase.modifiedClassOf(sourceEntry, modifiedClasses);
+
+                    if (modifiedClass != null)
+                        records.add(ZipRecord.deflate(sourceEntry, now, modifiedClass, deflater));
+                }
+            }
+
+            if (target.getInjectedEntries() != null)
+                for (Map.Entry<JarEntry, EntryContent> injected : target.getInjectedEntries().entrySet())
+                    records.add(SaveJarPhase.injectedRecordOf(
+                            injected.getKey(), now, injected.getValue(), deflater, null));
+        } finally {
+            deflater.end();
+        }
+
+        if (records.isEmpty())
+            return null; // nothing to update
+
+        Path jar = source.getFile().toPath();
+        long staleBytes = ZipArchiveUpdater.update(jar, records);
+
+        if (maxStaleRatio < 1 && staleBytes > maxStaleRatio * Files.size(jar)) {
+            try {
+                ZipArchiveUpdater.compact(jar, threads);
+            } catch (Throwable t) {
+                // The jar has been updated anyway.
+                if (JMinima.debug) t.printStackTrace();
+                return new EmittedValue<>(new PhaseExecutionException(false, "failed to compact jar: " + t));
+            }
+        }
+
+        return null; // success
+    }
+
+}
@@ -18,9 +18,14 @@ package me.darksidecode.jminima.phase.basic;
 
 import lombok.NonNull;
 import me.darksidecode.jminima.JMinima;
+import me.darksidecode.jminima.disassembling.ClassDetail;
+import me.darksidecode.jminima.disassembling.ClassHeader;
+import me.darksidecode.jminima.disassembling.LazyClass;
+import me.darksidecode.jminima.disassembling.RequiresClassDetails;
 import me.darksidecode.jminima.phase.EmittedValue;
 import me.darksidecode.jminima.phase.Phase;
 import me.darksidecode.jminima.phase.PhaseExecutionException;
+import me.darksidecode.jminima.util.ClassPool;
 import me.darksidecode.jminima.util.JarFileData;
 import me.darksidecode.jminima.walking.ClassWalker;
 import org.objectweb.asm.tree.ClassNode;
@@ -28,6 +33,13 @@ import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.MethodNode;
 
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
 
 public class WalkClassesPhase extends Phase<JarFileData, Void> {
 
@@ -36,6 +48,8 @@ public class WalkClassesPhase extends Phase<JarFileData, Void> {
 
     private final Constructor<? extends ClassWalker> walkerConstructor;
 
+    private Predicate<? super ClassHeader> filter; // null = walk all classes
+
     public WalkClassesPhase(@NonNull Class<? extends ClassWalker> walkerClass) {
         try {
             walkerConstructor = walkerClass.getConstructor(ClassNode.class);
@@ -46,15 +60,40 @@ public class WalkClassesPhase extends Phase<JarFileData, Void> {
         }
     }
 
+    public WalkClassesPhase filter(Predicate<? super ClassHeader> filter) {
+        // Walk only classes with headers accepted by the given filter (null = all classes).
+        // Lazy classes that are not accepted are not disassembled at all.
+        this.filter = filter;
+        return this;
+    }
+
     @Override
     public Class<? super JarFileData> getTargetTypeClass() {
         return JarFileData.class;
     }
 
+    @Override
+    public Set<ClassDetail> getRequiredClassDetails() {
+        RequiresClassDetails required = walkerConstructor.getDeclaringClass().getAnnotation(RequiresClassDetails.class);
+        Set<ClassDetail> details = EnumSet.noneOf(ClassDetail.class);
+
+        if (required == null)
+            return ClassDetail.ALL;
+
+        details.addAll(Arrays.asList(required.value()));
+        return details;
+    }
+
+    @Override
+    public String getConfiguration() {
+        // Filters are code, which cannot be described (see Workflow#checkpoint).
+        return filter == null ? walkerConstructor.getDeclaringClass().getName() : null;
+    }
+
     @Override
     protected EmittedValue<? extends Void> execute(JarFileData target,
                                                    PhaseExecutionException error) throws Throwable {
-        if (target == null || target.getJarFile() == null || target.getClasses() == null)
+        if (target == null || target.getSource() == null || target.getClasses() == null)
             return new EmittedValue<>(new PhaseExecutionException(
                     true, "failed to walk classes of the target disassembled data", error));
 
@@ -70,54 +109,142 @@ public class WalkClassesPhase extends Phase<JarFileData, Void> {
     }
 
     private boolean walkClasses(JarFileData jarFileData, StringBuilder errMsgBuilder) {
-        for (ClassNode cls : jarFileData.getClasses().keySet()) {
-            ClassWalker walker;
+        if (jarFileData.getMemoryBudget() != null)
+            return walkClassesWithinBudget(jarFileData, errMsgBuilder);
 
-            try {
-                walker = walkerConstructor.newInstance(cls);
-            } catch (ReflectiveOperationException ex) {
-                if (JMinima.debug) ex.printStackTrace();
-                errMsgBuilder.append("\n    - ").append(ex);
+        materialize(jarFileData, filter, errMsgBuilder);
+
+        for (ClassNode cls : jarFileData.getClasses().keySet())
+            if ((filter == null || filter.test(ClassHeader.of(cls))) && !walkClass(jarFileData, cls, errMsgBuilder))
                 return false; // fatal error
+
+        return true; // full or partial success
+    }
+
+    private boolean walkClassesWithinBudget(JarFileData jarFileData, StringBuilder errMsgBuilder) {
+        // Lazy classes are disassembled one at a time, and classes that have already been walked
+        // are evicted in the meantime, so that all classes do not have to be in the heap at once.
+        ClassPool classes = jarFileData.getClasses();
+        List<LazyClass> lazyClasses = jarFileData.getLazyClasses() != null
+                ? new ArrayList<>(jarFileData.getLazyClasses()) : Collections.emptyList();
+        int maxId = classes.getMaxId();
+
+        for (int id = 0; id < maxId; id++) {
+            ClassNode cls = classes.get(id);
+
+            if (cls != null && (filter == null || filter.test(ClassHeader.of(cls)))) {
+                if (!walkClass(jarFileData, cls, errMsgBuilder))
+                    return false; // fatal error
+
+                jarFileData.enforceMemoryBudget(id, errMsgBuilder);
             }
+        }
+
+        for (LazyClass lazyClass : lazyClasses) {
+            if (filter != null && !filter.test(lazyClass.getHeader()))
+                continue;
+
+            ClassNode cls;
 
             try {
-                walker.visitClass();
+                cls = jarFileData.materialize(lazyClass);
             } catch (Throwable t) {
                 if (JMinima.debug) t.printStackTrace();
-                errMsgBuilder.append("\n    - [visitClass: ")
-                        .append(cls.name).append("] ").append(t);
+                errMsgBuilder.append("\n    - ").append(t);
+                continue;
             }
 
-            if (cls.fields != null) {
-                for (FieldNode fld : cls.fields) {
+            if (!walkClass(jarFileData, cls, errMsgBuilder))
+                return false; // fatal error
+
+            jarFileData.enforceMemoryBudget(classes.idOf(cls), errMsgBuilder);
+        }
+
+        return true; // full or partial success
+    }
+
+    private boolean walkClass(JarFileData jarFileData, ClassNode cls, StringBuilder errMsgBuilder) {
+        // Returns false in case of a fatal error. Classes shared with forks are walked as copies,
+        // which replace them only if they are modified.
+        ClassPool classes = jarFileData.getClasses();
+        int id = classes.idOf(cls);
+        ClassNode target = classes.isShared(id) ? ClassPool.copyOf(cls) : cls;
+        boolean modified;
+
+        try {
+            modified = walkClass(walkerConstructor, target, errMsgBuilder);
+        } catch (ReflectiveOperationException ex) {
+            if (JMinima.debug) ex.printStackTrace();
+            errMsgBuilder.append("\n    - ").append(ex);
+            return false;
+        }
+
+        if (modified) {
+            classes.set(id, target);
+            classes.setModified(id, true); // mark the walked class as modified (could be used later)
+        }
+
+        return true;
+    }
+
+    static void materialize(JarFileData jarFileData, Predicate<? super ClassHeader> filter,
+                            StringBuilder errMsgBuilder) {
+        if (jarFileData.getLazyClasses() == null)
+            return;
+
+        if (filter == null)
+            jarFileData.materializeAll(errMsgBuilder);
+        else {
+            for (LazyClass cls : new ArrayList<>(jarFileData.getLazyClasses())) {
+                if (filter.test(cls.getHeader())) {
                     try {
-                        walker.visitField(fld);
+                        jarFileData.materialize(cls);
                     } catch (Throwable t) {
                         if (JMinima.debug) t.printStackTrace();
-                        errMsgBuilder.append("\n    - [visitField: ")
-                                .append(cls.name).append('#').append(fld.name).append("] ").append(t);
+                        errMsgBuilder.append("\n    - ").append(t);
                     }
                 }
             }
+        }
+    }
 
-            if (cls.methods != null) {
-                for (MethodNode mtd : cls.methods) {
-                    try {
-                        walker.visitMethod(mtd);
-                    } catch (Throwable t) {
-                        if (JMinima.debug) t.printStackTrace();
-                        errMsgBuilder.append("\n    - [visitMethod: ")
-                                .append(cls.name).append('#').append(mtd.name).append("] ").append(t);
-                    }
+    static boolean walkClass(Constructor<? extends ClassWalker> walkerConstructor, ClassNode cls,
+                             StringBuilder errMsgBuilder) throws ReflectiveOperationException {
+        ClassWalker walker = walkerConstructor.newInstance(cls);
+
+        try {
+            walker.visitClass();
+        } catch (Throwable t) {
+            if (JMinima.debug) t.printStackTrace();
+            errMsgBuilder.append("\n    - [visitClass: ")
+                    .append(cls.name).append("] ").append(t);
+        }
+
+        if (cls.fields != null) {
+            for (FieldNode fld : cls.fields) {
+                try {
+                    walker.visitField(fld);
+                } catch (Throwable t) {
+                    if (JMinima.debug) t.printStackTrace();
+                    errMsgBuilder.append("\n    - [visitField: ")
+                            .append(cls.name).append('#').append(fld.name).append("] ").append(t);
                 }
             }
+        }
 
-            if (walker.hasModifiedAnything())
-                jarFileData.getClasses().put(cls, true); // mark the walked class as modified (could be used later)
+        if (cls.methods != null) {
+            for (MethodNode mtd : cls.methods) {
+                try {
+                    walker.visitMethod(mtd);
+                } catch (Throwable t) {
+                    if (JMinima.debug) t.printStackTrace();
+                    errMsgBuilder.append("\n    - [visitMethod: ")
+                            .append(cls.name).append('#').append(mtd.name).append("] ").append(t);
+                }
+            }
         }
 
-        return true; // full or partial success
+        return walker.hasModifiedAnything();
     }
 
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.source;
+
+import lombok.Getter;
+import lombok.NonNull;
+import me.darksidecode.jminima.zip.ZipArchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.jar.JarEntry;
+import java.util.stream.Stream;
+import java.util.zip.ZipException;
+
+/*
+ * An archive read straight from memory: a memory-mapped jar file, an archive already in memory,
+ * or a part of another memory-mapped archive (see ZipArchive).
+ */
+public class ArchiveClassSource implements ClassSource {
+
+    @Getter
+    private final String name;
+
+    @Getter
+    private final File file; // null = an archive in memory
+
+    @Getter
+    private final ZipArchive archive;
+
+    public ArchiveClassSource(@NonNull File file) throws IOException {
+        this.name = file.getPath();
+        this.file = file;
+        this.archive = ZipArchive.map(file);
+    }
+
+    public ArchiveClassSource(@NonNull String name, @NonNull byte[] archive) throws ZipException {
+        this(name, ByteBuffer.wrap(archive));
+    }
+
+    public ArchiveClassSource(@NonNull String name, @NonNull ByteBuffer archive) throws ZipException {
+        this.name = name;
+        this.file = null;
+        this.archive = new ZipArchive(archive);
+    }
+
+    @Override
+    public Stream<JarEntry> stream() {
+        return archive.stream();
+    }
+
+    @Override
+    public InputStream getInputStream(@NonNull JarEntry entry) throws IOException {
+        return archive.getInputStream(entry);
+    }
+
+    @Override
+    public byte[] readEntry(@NonNull JarEntry entry, byte[] buffer) throws IOException {
+        return archive.readEntry(entry, buffer);
+    }
+
+    @Override
+    public void close() {
+        archive.close();
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.source;
+
+import lombok.NonNull;
+import me.darksidecode.jminima.zip.ZipArchive;
+import org.apache.commons.io.IOUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.jar.JarEntry;
+import java.util.stream.Stream;
+
+/*
+ * Entries (classes and resources) to disassemble and save, e.g. those of a jar file (JarClassSource),
+ * of an exploded directory (DirectoryClassSource) or of an archive in memory (ArchiveClassSource).
+ * A source may also have nested sources, e.g. jars inside a fat jar (FatJarClassSource), whose
+ * classes are disassembled as well, but whose entries are not entries of the source itself.
+ */
+public interface ClassSource extends Closeable {
+
+    String getName();
+
+    Stream<JarEntry> stream();
+
+    InputStream getInputStream(@NonNull JarEntry entry) throws IOException;
+
+    default byte[] readEntry(@NonNull JarEntry entry, byte[] buffer) throws IOException {
+        // Returns an array with data of the entry starting at index 0, possibly the given buffer if it is
+        // large enough. The array may be longer than the data, unless the size of the entry is unknown (-1).
+        // The array is owned by the caller, and may be passed as the buffer to subsequent calls.
+        long size = entry.getSize();
+
+        try (InputStream stream = getInputStream(entry)) {
+            if (size < 0 || size > Integer.MAX_VALUE - 8)
+                return IOUtils.toByteArray(stream); // the size is unknown (or too large to fit a buffer)
+
+            if (buffer == null || buffer.length < size)
+                buffer = new byte[(int) size];
+
+            IOUtils.readFully(stream, buffer, 0, (int) size);
+            return buffer;
+        }
+    }
+
+    default Collection<? extends ClassSource> getNestedSources() throws IOException {
+        return Collections.emptyList();
+    }
+
+    default File getFile() {
+        // The archive file entries are read from (null = none, e.g. a directory or an archive in memory).
+        return null;
+    }
+
+    default JarEntry getEntry(@NonNull String name) {
+        // The entry with the given name (null = no such entry, or entries cannot be looked up by names).
+        ZipArchive archive = getArchive();
+        return archive != null ? archive.getEntry(name) : null;
+    }
+
+    default ZipArchive getArchive() {
+        // The archive entries are read straight from, so that their compressed data can be copied as is
+        // (null = entries are only accessible through this source). Entries of the archive are ArchiveEntries.
+        return null;
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.source;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// An exploded directory (e.g. one saved by SaveDirectoryPhase). Entries are indexed once, on creation.
+public class DirectoryClassSource implements ClassSource {
+
+    @Getter
+    private final Path root;
+
+    private final List<JarEntry> entries = new ArrayList<>();
+
+    private final Map<String, JarEntry> entriesByName = new HashMap<>();
+
+    private final Map<String, Path> paths = new HashMap<>(); // entry name -> file
+
+    public DirectoryClassSource(@NonNull File dir) throws IOException {
+        if (!dir.isDirectory())
+            throw new FileNotFoundException("not a directory: " + dir);
+
+        root = dir.toPath().toAbsolutePath().normalize();
+        List<Path> files;
+
+        try (Stream<Path> stream = Files.walk(root)) {
+            files = stream.filter(path -> !path.equals(root)).sorted().collect(Collectors.toList());
+        }
+
+        for (Path path : files) {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+            JarEntry entry = new JarEntry(attrs.isDirectory() ? name + "/" : name);
+            entry.setTime(attrs.lastModifiedTime().toMillis());
+
+            if (!attrs.isDirectory())
+                entry.setSize(attrs.size());
+
+            entries.add(entry);
+            entriesByName.put(entry.getName(), entry);
+            paths.put(entry.getName(), path);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return root.toString();
+    }
+
+    @Override
+    public Stream<JarEntry> stream() {
+        return entries.stream();
+    }
+
+    @Override
+    public JarEntry getEntry(@NonNull String name) {
+        return entriesByName.get(name);
+    }
+
+    @Override
+    public InputStream getInputStream(@NonNull JarEntry entry) throws IOException {
+        Path path = paths.get(entry.getName());
+
+        if (path == null)
+            throw new FileNotFoundException("no such entry: " + entry.getName());
+
+        return entry.isDirectory() ? new ByteArrayInputStream(new byte[0]) : Files.newInputStream(path);
+    }
+
+    @Override
+    public void close() {
+        // Nothing to close - files are only opened while being read.
+    }
+
+}
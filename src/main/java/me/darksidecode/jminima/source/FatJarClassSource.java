@@ -0,0 +1,145 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.source;
+
+import lombok.Getter;
+import lombok.NonNull;
+import me.darksidecode.jminima.zip.ZipArchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+/*
+ * A fat jar (by default, a Spring Boot one), with nested jars exposed as nested sources. Nested jars
+ * are never extracted to temporary files: stored ones (as Spring Boot requires them to be) are read
+ * straight from the outer archive if it is memory-mapped (see ArchiveClassSource), and others are
+ * inflated into memory.
+ *
+ * Nested jars are still entries of the outer jar, and are saved as they are. Their classes are
+ * flagged as nested (see ClassPool#isNested), and phases that save classes report modifications
+ * of such classes as errors, rather than saving them in place of classes of the outer jar.
+ */
+public class FatJarClassSource implements ClassSource {
+
+    public static final String SPRING_BOOT_LIB_PREFIX = "BOOT-INF/lib/";
+
+    @Getter
+    private final ClassSource outerSource; // closed along with this source
+
+    private final String libPrefix;
+
+    private List<ArchiveClassSource> nestedSources; // opened lazily
+
+    public FatJarClassSource(@NonNull ClassSource outerSource) {
+        this(outerSource, SPRING_BOOT_LIB_PREFIX);
+    }
+
+    public FatJarClassSource(@NonNull ClassSource outerSource, @NonNull String libPrefix) {
+        this.outerSource = outerSource;
+        this.libPrefix = libPrefix;
+    }
+
+    @Override
+    public String getName() {
+        return outerSource.getName();
+    }
+
+    @Override
+    public Stream<JarEntry> stream() {
+        return outerSource.stream();
+    }
+
+    @Override
+    public JarEntry getEntry(@NonNull String name) {
+        return outerSource.getEntry(name);
+    }
+
+    @Override
+    public InputStream getInputStream(@NonNull JarEntry entry) throws IOException {
+        return outerSource.getInputStream(entry);
+    }
+
+    @Override
+    public byte[] readEntry(@NonNull JarEntry entry, byte[] buffer) throws IOException {
+        return outerSource.readEntry(entry, buffer);
+    }
+
+    @Override
+    public File getFile() {
+        return outerSource.getFile();
+    }
+
+    @Override
+    public ZipArchive getArchive() {
+        return outerSource.getArchive();
+    }
+
+    @Override
+    public synchronized Collection<? extends ClassSource> getNestedSources() throws IOException {
+        if (nestedSources == null) {
+            List<ArchiveClassSource> sources = new ArrayList<>();
+
+            try {
+                Iterator<JarEntry> entries = stream().iterator();
+
+                while (entries.hasNext()) {
+                    JarEntry entry = entries.next();
+
+                    if (!entry.isDirectory() && entry.getName().startsWith(libPrefix)
+                                             && entry.getName().endsWith(".jar"))
+                        sources.add(new ArchiveClassSource(
+                                getName() + "!/" + entry.getName(), readNestedJar(entry)));
+                }
+            } catch (Throwable t) {
+                sources.forEach(ArchiveClassSource::close);
+                throw t;
+            }
+
+            nestedSources = sources;
+        }
+
+        return Collections.unmodifiableList(nestedSources);
+    }
+
+    private ByteBuffer readNestedJar(JarEntry entry) throws IOException {
+        ZipArchive archive = getArchive();
+
+        if (archive != null && entry.getMethod() == ZipEntry.STORED)
+            return archive.getStoredData(entry); // no copying at all
+
+        byte[] bytes = readEntry(entry, null);
+        return ByteBuffer.wrap(bytes, 0, entry.getSize() != -1 ? (int) entry.getSize() : bytes.length);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (nestedSources != null)
+            nestedSources.forEach(ArchiveClassSource::close);
+
+        outerSource.close();
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.source;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+@RequiredArgsConstructor
+public class JarClassSource implements ClassSource {
+
+    @Getter @NonNull
+    private final JarFile jarFile;
+
+    @Override
+    public String getName() {
+        return jarFile.getName();
+    }
+
+    @Override
+    public File getFile() {
+        return new File(jarFile.getName());
+    }
+
+    @Override
+    public Stream<JarEntry> stream() {
+        return jarFile.stream();
+    }
+
+    @Override
+    public JarEntry getEntry(@NonNull String name) {
+        return jarFile.getJarEntry(name);
+    }
+
+    @Override
+    public InputStream getInputStream(@NonNull JarEntry entry) throws IOException {
+        return jarFile.getInputStream(entry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        jarFile.close();
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.util;
+
+import me.darksidecode.jminima.JMinima;
+import me.darksidecode.jminima.disassembling.ClassHeader;
+import me.darksidecode.jminima.disassembling.LazyClass;
+import me.darksidecode.jminima.source.ClassSource;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.jar.JarEntry;
+
+/*
+ * Keeps classes of a JarFileData within its MemoryBudget. Classes are accounted in the order of their IDs
+ * in the ClassPool, which is also the order they are considered cold in, so that each eviction pass
+ * continues where the previous one has stopped. Not thread-safe.
+ */
+final class ClassEvictor implements Closeable {
+
+    private static final int LOW_WATER_PERCENT = 75; // evict until classes take less than this part of the budget
+
+    private MemoryBudget budget; // the one resident classes are accounted in
+
+    private ClassPool pool;
+
+    private int registered; // classes with lower IDs are accounted
+
+    private long[] sizes = new long[64]; // ID -> estimated size; 0 = not resident
+
+    private long residentSize;
+
+    private int unmodifiedCursor; // unmodified classes with lower IDs have been evicted (or cannot be)
+
+    private int modifiedCursor; // modified classes with lower IDs have been evicted (or cannot be)
+
+    private SpillFile spillFile;
+
+    private boolean spillFailed; // true = modified classes are not evicted anymore
+
+    void enforce(JarFileData jarFileData, MemoryBudget budget, int maxId) throws IOException {
+        ClassPool classes = jarFileData.getClasses();
+
+        if (classes != pool || budget != this.budget || classes.getMaxId() < registered)
+            reset(classes, budget); // e.g. the pool has been replaced or cleared
+
+        register();
+
+        if (residentSize <= budget.getMaxSize())
+            return;
+
+        long target = budget.getMaxSize() / 100 * LOW_WATER_PERCENT;
+        unmodifiedCursor = evict(jarFileData, unmodifiedCursor, false, maxId, target);
+
+        // Modified classes are only spilled if evicting unmodified ones was not enough.
+        if (residentSize > budget.getMaxSize() && !spillFailed)
+            modifiedCursor = evict(jarFileData, modifiedCursor, true, maxId, target);
+    }
+
+    private void reset(ClassPool classes, MemoryBudget budget) {
+        if (this.budget != null)
+            this.budget.getStatistics().resident(-residentSize);
+
+        this.budget = budget;
+        pool = classes;
+        registered = 0;
+        Arrays.fill(sizes, 0);
+        residentSize = 0;
+        unmodifiedCursor = 0;
+        modifiedCursor = 0;
+    }
+
+    private void register() {
+        for (; registered < pool.getMaxId(); registered++) {
+            ClassNode cls = pool.get(registered);
+
+            if (cls != null) {
+                if (registered >= sizes.length)
+                    sizes = Arrays.copyOf(sizes, Math.max(sizes.length * 2, registered + 1));
+
+                long size = MemoryBudget.estimateSize(cls);
+                sizes[registered] = size;
+                resident(size);
+            }
+        }
+    }
+
+    private int evict(JarFileData jarFileData, int cursor, boolean modified,
+                      int maxId, long target) throws IOException {
+        int id = cursor;
+
+        for (; id < registered && id <= maxId && residentSize > target; id++) {
+            ClassNode cls = pool.get(id);
+
+            if (cls == null) {
+                // Removed from the pool (not by eviction).
+                resident(-sizes[id]);
+                sizes[id] = 0;
+            } else if (pool.isModified(id) == modified && !pool.isShared(id))
+                evict(jarFileData, id, cls, modified); // evicting shared classes would not free anything
+        }
+
+        return id;
+    }
+
+    private void evict(JarFileData jarFileData, int id, ClassNode cls, boolean modified) throws IOException {
+        ClassHeader header = ClassHeader.of(cls);
+        int readerFlags = ClassPool.readerFlagsOf(cls);
+        MemoryStatistics statistics = budget.getStatistics();
+        LazyClass lazyClass;
+        long spillBytes = 0;
+
+        if (modified) {
+            byte[] bytes;
+
+            try {
+                bytes = ClassPool.serialize(cls, new ClassWriter(0));
+            } catch (Throwable t) {
+                // Such a class cannot be saved either, so it is up to the phase that saves it to report the error.
+                if (JMinima.debug) t.printStackTrace();
+                return; // stays resident
+            }
+
+            SpillFile file;
+            long pos;
+
+            try {
+                if (spillFile == null)
+                    spillFile = new SpillFile(budget.getSpillDirectory());
+
+                file = spillFile;
+                pos = file.write(bytes);
+            } catch (IOException ex) {
+                spillFailed = true; // reported once
+                throw ex;
+            }
+
+            int len = bytes.length;
+            spillBytes = len;
+            lazyClass = LazyClass.evicted(header, len, () -> {
+                byte[] spilled = file.read(pos, len);
+                statistics.spillRead(len);
+                return spilled;
+            }, readerFlags, true);
+        } else {
+            // Unmodified classes are reloaded from their source entries as they are, rather than serialized
+            // (which would change their bytes, and thus their content hashes - see AnalysisCache).
+            ClassSource source = pool.isNested(id) ? null : jarFileData.getSource();
+            JarEntry entry = source != null ? sourceEntryOf(source, cls.name) : null;
+
+            if (entry == null)
+                return; // stays resident, e.g. a class of a nested source or one added by a phase
+
+            String name = cls.name;
+            lazyClass = LazyClass.evicted(header, (int) entry.getSize(), () -> {
+                byte[] bytes = source.readEntry(entry, null);
+
+                if (!name.equals(new ClassReader(bytes).getClassName()))
+                    throw new IOException("entry " + entry.getName() + " does not hold class " + name + " anymore");
+
+                return bytes;
+            }, readerFlags, false);
+        }
+
+        if (pool.isNested(id))
+            lazyClass = lazyClass.asNested();
+
+        pool.remove(cls);
+
+        if (jarFileData.getLazyClasses() == null)
+            jarFileData.setLazyClasses(new LinkedHashSet<>());
+
+        jarFileData.getLazyClasses().add(lazyClass);
+        resident(-sizes[id]);
+        sizes[id] = 0;
+        statistics.evicted(modified, spillBytes);
+    }
+
+    private static JarEntry sourceEntryOf(ClassSource source, String className) {
+        // The entry the class has been read from (null = none, or one whose size is unknown).
+        for (String suffix : new String[] { ".class", ".class/" }) {
+            JarEntry entry = source.getEntry(className + suffix);
+
+            if (entry != null && entry.getSize() >= 0 && entry.getSize() <= Integer.MAX_VALUE - 8)
+                return entry;
+        }
+
+        return null;
+    }
+
+    private void resident(long delta) {
+        residentSize += delta;
+        budget.getStatistics().resident(delta);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Spilled classes cannot be reloaded anymore.
+        if (budget != null)
+            reset(null, null);
+
+        if (spillFile != null)
+            spillFile.close();
+    }
+
+}
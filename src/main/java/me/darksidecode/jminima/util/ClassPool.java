@@ -0,0 +1,429 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.util;
+
+import lombok.NonNull;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.jar.JarEntry;
+
+/*
+ * Disassembled classes, each with a dense ID (in the order of addition), and a flag of whether it has been
+ * modified (true) or is as it was on read (false). As a Map<ClassNode, Boolean>, the pool is keyed by identity
+ * of ClassNodes, and iterated in the order of IDs. IDs of removed classes are never reused.
+ *
+ * Classes can also be looked up by name in constant time. If there are multiple classes with the same name
+ * (e.g. from "Foo.class" and "Foo.class/" entries), the first one added is returned.
+ *
+ * Classes of nested sources (e.g. jars inside a fat jar, see ClassSource#getNestedSources) are flagged as such,
+ * as they are not entries of the source itself, so they cannot be saved along with other classes.
+ *
+ * Forks of a pool share its classes with it (and with each other) until they are modified: shared classes must
+ * only be read, and a private copy of a class is to be made (see getWritable) before modifying it. As ASM resets
+ * labels while visiting classes, shared classes are only visited while holding their own monitor.
+ */
+public class ClassPool extends AbstractMap<ClassNode, Boolean> {
+
+    private final List<ClassNode> classes = new ArrayList<>(); // ID -> class; null = removed
+
+    private final Map<ClassNode, Integer> ids = new IdentityHashMap<>();
+
+    private final Map<String, Integer> names = new HashMap<>(); // name -> ID of the first class with this name
+
+    private final Set<String> duplicateNames = new HashSet<>(); // names of multiple classes (present or removed)
+
+    private final BitSet modified = new BitSet();
+
+    private final BitSet shared = new BitSet(); // classes also referenced by other pools (forks)
+
+    private final BitSet nested = new BitSet(); // classes of nested sources
+
+    private int modCount;
+
+    private final EntrySet entrySet = new EntrySet();
+
+    public ClassPool() {
+    }
+
+    public ClassPool(@NonNull Map<? extends ClassNode, Boolean> classes) {
+        putAll(classes);
+    }
+
+    private ClassPool(ClassPool base) {
+        classes.addAll(base.classes);
+        ids.putAll(base.ids);
+        names.putAll(base.names);
+        duplicateNames.addAll(base.duplicateNames);
+        modified.or(base.modified);
+        shared.or(base.shared);
+        nested.or(base.nested);
+    }
+
+    public static ClassPool of(Map<? extends ClassNode, Boolean> classes) {
+        // Existing pools are used as is (e.g. when JarFileData is created by a phase).
+        return classes == null || classes instanceof ClassPool ? (ClassPool) classes : new ClassPool(classes);
+    }
+
+    public int add(@NonNull ClassNode cls) {
+        // Adds the given class as unmodified (unless it is present already), and returns its ID.
+        Integer id = ids.get(cls);
+
+        if (id != null)
+            return id;
+
+        id = classes.size();
+        classes.add(cls);
+        ids.put(cls, id);
+        modCount++;
+        indexName(cls.name, id);
+
+        return id;
+    }
+
+    public int idOf(@NonNull ClassNode cls) {
+        Integer id = ids.get(cls);
+        return id != null ? id : -1;
+    }
+
+    public ClassNode get(int id) {
+        // Null if there is no class with the given ID (e.g. it has been removed).
+        return id >= 0 && id < classes.size() ? classes.get(id) : null;
+    }
+
+    public ClassNode getByName(@NonNull String name) {
+        Integer id = names.get(name);
+        return id != null ? classes.get(id) : null;
+    }
+
+    public ClassNode getByEntry(@NonNull JarEntry entry) {
+        // The class disassembled from the given entry (supports "Foo.class/" entries).
+        String name = JarFileData.getClassName(entry);
+        return name != null ? getByName(name) : null;
+    }
+
+    public int getMaxId() {
+        // IDs of all classes (present or removed) are below this value.
+        return classes.size();
+    }
+
+    public boolean isModified(int id) {
+        return modified.get(id);
+    }
+
+    public void setModified(int id, boolean modified) {
+        if (get(id) == null)
+            throw new NoSuchElementException("no class with ID " + id);
+
+        this.modified.set(id, modified);
+    }
+
+    public void setModified(@NonNull ClassNode cls) {
+        setModified(add(cls), true);
+    }
+
+    public boolean isNested(int id) {
+        return nested.get(id);
+    }
+
+    public void setNested(int id, boolean nested) {
+        if (get(id) == null)
+            throw new NoSuchElementException("no class with ID " + id);
+
+        this.nested.set(id, nested);
+    }
+
+    public boolean isShared(int id) {
+        return shared.get(id);
+    }
+
+    void markShared(int id) {
+        // The class with the given ID is referenced by other pools (e.g. through a forked LazyClass).
+        if (get(id) == null)
+            throw new NoSuchElementException("no class with ID " + id);
+
+        shared.set(id);
+    }
+
+    public synchronized ClassPool fork() {
+        // A copy of this pool, with the same IDs and modified flags. From now on,
+        // all classes present in either pool are shared (in this pool as well).
+        for (int id = 0; id < classes.size(); id++)
+            if (classes.get(id) != null)
+                shared.set(id);
+
+        return new ClassPool(this);
+    }
+
+    public ClassNode getWritable(int id) {
+        // The class with the given ID, copied first if it is shared.
+        ClassNode cls = get(id);
+
+        if (cls == null)
+            throw new NoSuchElementException("no class with ID " + id);
+
+        if (!shared.get(id))
+            return cls;
+
+        ClassNode copy = copyOf(cls);
+        set(id, copy);
+
+        return copy;
+    }
+
+    public void set(int id, @NonNull ClassNode cls) {
+        // Replaces the class with the given ID (e.g. with its modified copy), keeping its ID and modified flag.
+        // The copy may have another name (e.g. it has been renamed), in which case it is found by the new one.
+        ClassNode previous = get(id);
+
+        if (previous == null)
+            throw new NoSuchElementException("no class with ID " + id);
+
+        if (previous != cls) {
+            if (ids.containsKey(cls))
+                throw new IllegalArgumentException("class " + cls.name + " is already in the pool");
+
+            classes.set(id, cls);
+            ids.remove(previous);
+            ids.put(cls, id);
+            shared.clear(id);
+
+            if (!Objects.equals(previous.name, cls.name)) {
+                unindexName(previous.name, id);
+                indexName(cls.name, id);
+            }
+        }
+    }
+
+    public static ClassNode copyOf(@NonNull ClassNode cls) {
+        // A deep copy, which is much cheaper than disassembling the class again.
+        ClassNode copy = new ClassNode();
+        accept(cls, copy);
+
+        return copy;
+    }
+
+    public static byte[] serialize(@NonNull ClassNode cls, @NonNull ClassWriter writer) {
+        accept(cls, writer);
+        return writer.toByteArray();
+    }
+
+    private static void accept(ClassNode cls, ClassVisitor visitor) {
+        // Classes may be shared with forks, and thus be visited by several threads at once. Visiting a class
+        // is not read-only (labels of its methods are reset), so all visits of a class are serialized here.
+        synchronized (cls) {
+            cls.accept(visitor);
+        }
+    }
+
+    static int readerFlagsOf(ClassNode cls) {
+        // Flags to disassemble the given class with once it is serialized, so that its frames stay as they are.
+        if (cls.methods != null)
+            for (MethodNode mtd : cls.methods)
+                if (mtd.instructions != null)
+                    for (AbstractInsnNode insn = mtd.instructions.getFirst(); insn != null; insn = insn.getNext())
+                        if (insn instanceof FrameNode)
+                            return ((FrameNode) insn).type == Opcodes.F_NEW ? ClassReader.EXPAND_FRAMES : 0;
+
+        return 0;
+    }
+
+    public BitSet getModified() {
+        return (BitSet) modified.clone();
+    }
+
+    public List<ClassNode> getModifiedClasses() {
+        List<ClassNode> modifiedClasses = new ArrayList<>(modified.cardinality());
+
+        for (int id = modified.nextSetBit(0); id >= 0; id = modified.nextSetBit(id + 1))
+            modifiedClasses.add(classes.get(id));
+
+        return modifiedClasses;
+    }
+
+    @Override
+    public int size() {
+        return ids.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return ids.containsKey(key);
+    }
+
+    @Override
+    public Boolean get(Object key) {
+        Integer id = ids.get(key);
+        return id != null ? modified.get(id) : null;
+    }
+
+    @Override
+    public Boolean put(@NonNull ClassNode cls, @NonNull Boolean modified) {
+        Boolean previous = get(cls);
+        this.modified.set(add(cls), modified);
+
+        return previous;
+    }
+
+    @Override
+    public Boolean remove(Object key) {
+        Integer id = ids.remove(key);
+
+        if (id == null)
+            return null;
+
+        ClassNode cls = classes.set(id, null);
+        boolean wasModified = modified.get(id);
+        modified.clear(id);
+        shared.clear(id);
+        nested.clear(id);
+        modCount++;
+        unindexName(cls.name, id);
+
+        return wasModified;
+    }
+
+    private void indexName(String name, int id) {
+        if (name != null && names.putIfAbsent(name, id) != null)
+            duplicateNames.add(name);
+    }
+
+    private void unindexName(String name, int id) {
+        // The class with the given ID no longer has the given name (e.g. it has been removed or renamed).
+        if (name != null && names.remove(name, id) && duplicateNames.contains(name)) {
+            // Another class with the same name (if any) becomes the one found by name.
+            for (int otherId = 0; otherId < classes.size(); otherId++) {
+                ClassNode other = classes.get(otherId);
+
+                if (other != null && name.equals(other.name)) {
+                    names.put(name, otherId);
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        classes.clear();
+        ids.clear();
+        names.clear();
+        duplicateNames.clear();
+        modified.clear();
+        shared.clear();
+        nested.clear();
+        modCount++;
+    }
+
+    @Override
+    public Set<Entry<ClassNode, Boolean>> entrySet() {
+        return entrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<ClassNode, Boolean>> {
+        @Override
+        public int size() {
+            return ClassPool.this.size();
+        }
+
+        @Override
+        public Iterator<Entry<ClassNode, Boolean>> iterator() {
+            return new Iterator<Entry<ClassNode, Boolean>>() {
+                private int expectedModCount = modCount;
+                private int nextId = nextId(0);
+                private int lastId = -1;
+
+                @Override
+                public boolean hasNext() {
+                    return nextId < classes.size();
+                }
+
+                @Override
+                public Entry<ClassNode, Boolean> next() {
+                    if (modCount != expectedModCount)
+                        throw new ConcurrentModificationException();
+
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+
+                    lastId = nextId;
+                    nextId = nextId(nextId + 1);
+
+                    return new PoolEntry(lastId);
+                }
+
+                @Override
+                public void remove() {
+                    if (lastId == -1)
+                        throw new IllegalStateException();
+
+                    if (modCount != expectedModCount)
+                        throw new ConcurrentModificationException();
+
+                    ClassPool.this.remove(classes.get(lastId));
+                    expectedModCount = modCount;
+                    lastId = -1;
+                }
+            };
+        }
+
+        private int nextId(int from) {
+            while (from < classes.size() && classes.get(from) == null)
+                from++;
+
+            return from;
+        }
+    }
+
+    // Changing values (modified flags) of classes does not invalidate iterators.
+    @SuppressWarnings ("serial") // never serialized
+    private final class PoolEntry extends SimpleEntry<ClassNode, Boolean> {
+        private final int id;
+
+        private PoolEntry(int id) {
+            super(classes.get(id), modified.get(id));
+            this.id = id;
+        }
+
+        @Override
+        public Boolean setValue(@NonNull Boolean value) {
+            modified.set(id, value);
+            return super.setValue(value);
+        }
+    }
+
+}
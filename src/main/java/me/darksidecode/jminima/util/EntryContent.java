@@ -0,0 +1,256 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.util;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+
+/*
+ * Data of an injected entry. Except for byte arrays, contents are not read until the entry is saved
+ * (and are read again each time it is saved), so they do not have to be kept in memory in the meantime.
+ * Contents of files are transferred with FileChannel.transferTo, without copying them through the heap.
+ */
+public abstract class EntryContent {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public static EntryContent of(@NonNull byte[] bytes) {
+        return new BufferContent(ByteBuffer.wrap(bytes));
+    }
+
+    public static EntryContent of(@NonNull ByteBuffer buffer) {
+        // Contents are the remaining bytes of the buffer at the time of this call.
+        return new BufferContent(buffer.slice());
+    }
+
+    public static EntryContent of(@NonNull Path path) {
+        return new PathContent(path);
+    }
+
+    public static EntryContent of(@NonNull ChannelSupplier supplier) {
+        return new SupplierContent(supplier);
+    }
+
+    public static EntryContent of(@NonNull ClassNode cls, int writerFlags) {
+        // The class is serialized (with a ClassWriter with the given flags) each time it is read.
+        return of(cls, () -> new ClassWriter(writerFlags));
+    }
+
+    public static EntryContent of(@NonNull ClassNode cls, @NonNull Supplier<? extends ClassWriter> writers) {
+        // The class is serialized with a new writer each time it is read (e.g. a HierarchyClassWriter).
+        return new ClassContent(cls, writers);
+    }
+
+    public abstract long size() throws IOException; // -1 = unknown until read
+
+    public abstract ReadableByteChannel open() throws IOException;
+
+    public long transferTo(@NonNull WritableByteChannel target) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long transferred = 0;
+
+        try (ReadableByteChannel channel = open()) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+
+                while (buffer.hasRemaining())
+                    transferred += target.write(buffer);
+
+                buffer.clear();
+            }
+        }
+
+        return transferred;
+    }
+
+    public byte[] toByteArray() throws IOException {
+        long size = size();
+
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("entry content is too large to be read into memory: " + size + " bytes");
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(size > 0 ? (int) size : BUFFER_SIZE);
+        transferTo(Channels.newChannel(stream));
+
+        return stream.toByteArray();
+    }
+
+    public interface ChannelSupplier {
+        ReadableByteChannel open() throws IOException;
+    }
+
+    @RequiredArgsConstructor
+    private static final class BufferContent extends EntryContent {
+        private final ByteBuffer buffer;
+
+        @Override
+        public long size() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public ReadableByteChannel open() {
+            ByteBuffer data = buffer.duplicate();
+
+            return new ReadableByteChannel() {
+                private boolean open = true;
+
+                @Override
+                public int read(ByteBuffer dst) {
+                    if (!data.hasRemaining())
+                        return -1;
+
+                    int len = Math.min(dst.remaining(), data.remaining());
+                    ByteBuffer chunk = data.duplicate();
+                    chunk.limit(chunk.position() + len);
+                    dst.put(chunk);
+                    data.position(data.position() + len);
+
+                    return len;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return open;
+                }
+
+                @Override
+                public void close() {
+                    open = false;
+                }
+            };
+        }
+
+        @Override
+        public long transferTo(@NonNull WritableByteChannel target) throws IOException {
+            ByteBuffer data = buffer.duplicate();
+            long transferred = 0;
+
+            while (data.hasRemaining())
+                transferred += target.write(data);
+
+            return transferred;
+        }
+
+        @Override
+        public byte[] toByteArray() {
+            // Wrapped arrays are returned as is, without copying.
+            if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                    && buffer.remaining() == buffer.array().length)
+                return buffer.array();
+
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+
+            return bytes;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class PathContent extends EntryContent {
+        private final Path path;
+
+        @Override
+        public long size() throws IOException {
+            return Files.size(path);
+        }
+
+        @Override
+        public ReadableByteChannel open() throws IOException {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        }
+
+        @Override
+        public long transferTo(@NonNull WritableByteChannel target) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                long transferred = 0;
+
+                while (transferred < size) {
+                    long n = channel.transferTo(transferred, size - transferred, target);
+
+                    if (n <= 0)
+                        break; // truncated concurrently
+
+                    transferred += n;
+                }
+
+                return transferred;
+            }
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class ClassContent extends EntryContent {
+        private final ClassNode cls;
+        private final Supplier<? extends ClassWriter> writers;
+
+        @Override
+        public long size() {
+            return -1;
+        }
+
+        @Override
+        public ReadableByteChannel open() throws IOException {
+            return new BufferContent(ByteBuffer.wrap(toByteArray())).open();
+        }
+
+        @Override
+        public long transferTo(@NonNull WritableByteChannel target) throws IOException {
+            return new BufferContent(ByteBuffer.wrap(toByteArray())).transferTo(target);
+        }
+
+        @Override
+        public byte[] toByteArray() throws IOException {
+            try {
+                return ClassPool.serialize(cls, writers.get());
+            } catch (Throwable t) {
+                throw new IOException("failed to serialize class " + cls.name, t);
+            }
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class SupplierContent extends EntryContent {
+        private final ChannelSupplier supplier;
+
+        @Override
+        public long size() {
+            return -1;
+        }
+
+        @Override
+        public ReadableByteChannel open() throws IOException {
+            return supplier.open();
+        }
+    }
+
+}
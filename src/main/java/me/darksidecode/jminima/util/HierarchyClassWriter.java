@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.darksidecode.jminima.util;
+
+import lombok.NonNull;
+import me.darksidecode.jminima.disassembling.ClassHeader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+/*
+ * A ClassWriter that resolves common super classes (when computing frames) from headers of known classes
+ * (e.g. those of JarFileData, see JarFileData#getHeader), rather than by loading them. Only the classes
+ * that are not known (e.g. those of the JDK) are loaded, with the class loader of the writer. Computing
+ * frames still fails if a class is neither known nor loadable.
+ */
+public class HierarchyClassWriter extends ClassWriter {
+
+    private static final String OBJECT = "java/lang/Object";
+
+    private final Function<String, ClassHeader> headers; // internal name -> header (null = unknown)
+
+    public HierarchyClassWriter(int flags, @NonNull Function<String, ClassHeader> headers) {
+        super(flags);
+        this.headers = headers;
+    }
+
+    @Override
+    protected String getCommonSuperClass(String type1, String type2) {
+        ClassHeader header1 = headerOf(type1);
+        ClassHeader header2 = headerOf(type2);
+
+        if (isInterface(header1) || isInterface(header2))
+            return OBJECT; // like ClassWriter, which does not look for common interfaces
+
+        Set<String> superClasses1 = new HashSet<>();
+
+        for (ClassHeader header = header1; header != null; header = superHeaderOf(header))
+            superClasses1.add(header.getName());
+
+        for (ClassHeader header = header2; header != null; header = superHeaderOf(header))
+            if (superClasses1.contains(header.getName()))
+                return header.getName();
+
+        return OBJECT;
+    }
+
+    private ClassHeader superHeaderOf(ClassHeader header) {
+        return header.getSuperName() != null ? headerOf(header.getSuperName()) : null;
+    }
+
+    private ClassHeader headerOf(String type) {
+        ClassHeader header = headers.apply(type);
+
+        if (header != null)
+            return header;
+
+        try {
+            Class<?> cls = Class.forName(type.replace('/', '.'), false, getClassLoader());
+            return new ClassHeader(cls.isInterface() ? Opcodes.ACC_INTERFACE : 0, type,
+                    cls.getSuperclass() != null ? Type.getInternalName(cls.getSuperclass()) : null,
+                    Collections.emptyList());
+        } catch (ClassNotFoundException ex) {
+            throw new TypeNotPresentException(type, ex);
+        }
+    }
+
+    private static boolean isInterface(ClassHeader header) {
+        return (header.getAccess() & Opcodes.ACC_INTERFACE) != 0;
+    }
+
+}
@@ -17,22 +17,182 @@
 package me.darksidecode.jminima.util;
 
 import lombok.*;
+import me.darksidecode.jminima.JMinima;
+import me.darksidecode.jminima.disassembling.ClassHeader;
+import me.darksidecode.jminima.disassembling.LazyClass;
+import me.darksidecode.jminima.source.ClassSource;
+import me.darksidecode.jminima.source.JarClassSource;
 import org.objectweb.asm.tree.ClassNode;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 @Getter @Setter
 @NoArgsConstructor
-@AllArgsConstructor
-public class JarFileData {
+public class JarFileData implements Closeable {
 
     private JarFile jarFile;
 
-    private Map<ClassNode, Boolean> classes; // true = class has been modified; false = class is as it was on read
+    @Setter (AccessLevel.NONE)
+    private ClassPool classes; // modified = class has been modified; unmodified = class is as it was on read
 
-    private Map<JarEntry, byte[]> injectedEntries;
+    private Map<JarEntry, EntryContent> injectedEntries;
+
+    private ClassSource source; // null = entries of jarFile
+
+    private Set<LazyClass> lazyClasses; // classes that are not disassembled yet (not in classes); null = none
+
+    private MemoryBudget memoryBudget; // null = keep all disassembled classes
+
+    @Getter (AccessLevel.NONE) @Setter (AccessLevel.NONE)
+    private ClassEvictor evictor; // null = nothing has been accounted yet
+
+    public JarFileData(JarFile jarFile, Map<ClassNode, Boolean> classes,
+                       Map<JarEntry, EntryContent> injectedEntries) {
+        this(jarFile, classes, injectedEntries, null);
+    }
+
+    public JarFileData(JarFile jarFile, Map<ClassNode, Boolean> classes,
+                       Map<JarEntry, EntryContent> injectedEntries, ClassSource source) {
+        this(jarFile, classes, injectedEntries, source, null);
+    }
+
+    public JarFileData(JarFile jarFile, Map<ClassNode, Boolean> classes, Map<JarEntry, EntryContent> injectedEntries,
+                       ClassSource source, Set<LazyClass> lazyClasses) {
+        this.jarFile = jarFile;
+        this.classes = ClassPool.of(classes);
+        this.injectedEntries = injectedEntries;
+        this.source = source;
+        this.lazyClasses = lazyClasses;
+    }
+
+    public void setClasses(Map<ClassNode, Boolean> classes) {
+        // Plain maps are copied into a new pool, in the order of their iteration.
+        this.classes = ClassPool.of(classes);
+    }
+
+    public JarFileData fork() {
+        // A copy of this data that can be transformed independently of it (e.g. by another workflow, running
+        // concurrently). Classes are shared until they are modified (see ClassPool#fork), and lazy classes are
+        // disassembled separately. The jar file, source and spill file are shared, so neither this data nor
+        // the jar file can be closed until all forks are done (this is up to the caller). Note that classes
+        // of data to be forked are better disassembled with explicit details (e.g. DisassemblePhase#classDetails),
+        // as the workflow that disassembles them does not know what the workflows of forks need.
+        Set<LazyClass> forkedLazyClasses = null;
+
+        if (lazyClasses != null) {
+            forkedLazyClasses = new LinkedHashSet<>();
+
+            for (LazyClass cls : lazyClasses)
+                forkedLazyClasses.add(cls.copy());
+        }
+
+        JarFileData fork = new JarFileData(jarFile, classes != null ? classes.fork() : null,
+                injectedEntries != null ? new LinkedHashMap<>(injectedEntries) : null, source, forkedLazyClasses);
+        fork.memoryBudget = memoryBudget;
+
+        return fork;
+    }
+
+    public ClassNode materialize(@NonNull LazyClass cls) {
+        // Disassembles the given lazy class, and moves it to classes (as unmodified). Throws if it cannot be
+        // disassembled - in this case, it stays lazy, and thus it is saved as it was.
+        ClassNode node = cls.getNode();
+
+        if (lazyClasses != null)
+            lazyClasses.remove(cls);
+
+        int id = classes.add(node);
+
+        if (cls.isModified())
+            classes.setModified(id, true); // reloaded after being spilled
+
+        if (cls.isNested())
+            classes.setNested(id, true);
+
+        if (cls.isShared())
+            classes.markShared(id); // disassembled before being forked
+
+        if (cls.isEvicted() && memoryBudget != null)
+            memoryBudget.getStatistics().reloaded();
+
+        return node;
+    }
+
+    public void materializeAll(@NonNull StringBuilder errMsgBuilder) {
+        if (lazyClasses == null)
+            return;
+
+        for (LazyClass cls : new ArrayList<>(lazyClasses)) {
+            try {
+                materialize(cls);
+            } catch (Throwable t) {
+                if (JMinima.debug) t.printStackTrace();
+                errMsgBuilder.append("\n    - ").append(t);
+            }
+        }
+    }
+
+    public void enforceMemoryBudget() throws IOException {
+        enforceMemoryBudget(Integer.MAX_VALUE);
+    }
+
+    public void enforceMemoryBudget(int maxId) throws IOException {
+        // Evicts classes if they exceed the memory budget (if any), but only the ones with IDs in the pool
+        // up to the given one (e.g. the ones that have already been processed). Throws if spilling fails.
+        if (memoryBudget == null || classes == null)
+            return;
+
+        if (evictor == null)
+            evictor = new ClassEvictor();
+
+        evictor.enforce(this, memoryBudget, maxId);
+    }
+
+    public void enforceMemoryBudget(int maxId, @NonNull StringBuilder errMsgBuilder) {
+        // Like enforceMemoryBudget(int), but failures are reported to the given builder (e.g. of a phase).
+        try {
+            enforceMemoryBudget(maxId);
+        } catch (Throwable t) {
+            if (JMinima.debug) t.printStackTrace();
+            errMsgBuilder.append("\n    - failed to evict classes: ").append(t);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Releases the spill file (if any), so classes spilled to it cannot be reloaded anymore.
+        if (evictor != null)
+            evictor.close();
+    }
+
+    public ClassHeader getHeader(@NonNull String name) {
+        // Header of the class with the given internal name, disassembled or lazy (null = no such class).
+        // Lazy classes are looked up one by one, so this is meant for occasional lookups only.
+        ClassNode cls = classes != null ? classes.getByName(name) : null;
+
+        if (cls != null)
+            return ClassHeader.of(cls);
+
+        if (lazyClasses != null)
+            for (LazyClass lazyClass : lazyClasses)
+                if (lazyClass.getName().equals(name))
+                    return lazyClass.getHeader();
+
+        return null;
+    }
+
+    public ClassSource getSource() {
+        // Jar files opened by OpenJarFilePhase and the like are not wrapped in a ClassSource in advance.
+        return source != null || jarFile == null ? source : new JarClassSource(jarFile);
+    }
 
     public static boolean isClassEntry(@NonNull JarEntry entry) {
         // It is possible to save classes bytecode inside jar entries with names ending with "/".
@@ -40,4 +200,15 @@ public class JarFileData {
         return entry.getName().endsWith(".class") || entry.getName().endsWith(".class/");
     }
 
+    public static String getClassName(@NonNull JarEntry entry) {
+        String name = entry.getName();
+
+        if (name.endsWith(".class"))
+            return name.substring(0, name.length() - ".class".length());
+        else if (name.endsWith(".class/"))
+            return name.substring(0, name.length() - ".class/".length());
+        else
+            return null; // not a class entry
+    }
+
 }
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.util;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.UtilityClass;
+import me.darksidecode.jminima.disassembling.ClassHeader;
+import me.darksidecode.jminima.disassembling.LazyClass;
+import me.darksidecode.jminima.source.ArchiveClassSource;
+import me.darksidecode.jminima.source.ClassSource;
+import me.darksidecode.jminima.source.JarClassSource;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/*
+ * A binary snapshot of JarFileData: the path (and size and modification time) of its jar file, class files along
+ * with their modified flags and headers, and injected entries. It is loaded by mapping the file, and reading
+ * a record per class from the index at its end, so no class is even read on load. All classes are restored as lazy
+ * classes (see JarFileData#getLazyClasses), loaded from the mapped file, including the ones that were disassembled:
+ * like any lazy classes, they are disassembled on first access (e.g. by WalkClassesPhase), with their modified flags.
+ *
+ * Only data of jar files (with the jar file itself, or its mapped archive, as the source) can be saved. The jar file
+ * is opened again on load (in the same way), and must not change in the meantime. Memory budgets are not saved,
+ * and neither are ClassNodes themselves, so classes that were disassembled with fewer details (see ClassDetail)
+ * are restored as such.
+ */
+@UtilityClass
+public class JarFileDataSnapshot {
+
+    private static final int MAGIC     = 0x4A4D5344; // "JMSD"
+    private static final int END_MAGIC = 0x4A4D5345; // "JMSE"
+    private static final int VERSION   = 3;
+
+    private static final int INDEX_OFFSET_POS = 8; // after the magic and version
+
+    // Offset, length, reader flags, modified, access, and lengths of name, super name and interfaces (at least).
+    private static final int MIN_CLASS_RECORD_SIZE = 8 + 4 + 4 + 1 + 4 + 4 + 4 + 4;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    public static void save(@NonNull JarFileData jarFileData,
+                            @NonNull Path file, @NonNull String tag) throws IOException {
+        // The tag (e.g. a description of what the data is) must match the one given on load.
+        ClassSource source = jarFileData.getSource();
+        boolean mapped = source instanceof ArchiveClassSource;
+
+        if (source == null || source.getFile() == null || !mapped && !(source instanceof JarClassSource
+                && ((JarClassSource) source).getJarFile() == jarFileData.getJarFile()))
+            throw new IOException("only data of jar files can be saved");
+
+        if (!source.getNestedSources().isEmpty())
+            throw new IOException("data of jar files with nested sources cannot be saved");
+
+        File jar = source.getFile().getAbsoluteFile();
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tempFile = Files.createTempFile(dir, file.getFileName().toString(), TEMP_SUFFIX);
+
+        try {
+            long indexOffset;
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tempFile), 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(0); // index offset, written last
+                writeString(out, tag);
+                writeString(out, jar.getPath());
+                out.writeLong(jar.length());
+                out.writeLong(jar.lastModified());
+                out.writeBoolean(mapped);
+
+                indexOffset = out.size();
+                List<ClassRecord> classes = new ArrayList<>();
+                List<EntryRecord> entries = new ArrayList<>();
+
+                // Disassembled classes first, so that they keep their order (IDs) once disassembled again.
+                if (jarFileData.getClasses() != null) {
+                    for (Map.Entry<ClassNode, Boolean> cls : jarFileData.getClasses().entrySet()) {
+                        byte[] bytes = ClassPool.serialize(cls.getKey(), new ClassWriter(0));
+                        classes.add(new ClassRecord(indexOffset, bytes.length, ClassPool.readerFlagsOf(cls.getKey()),
+                                cls.getValue(), ClassHeader.of(cls.getKey())));
+                        out.write(bytes);
+                        indexOffset += bytes.length;
+                    }
+                }
+
+                if (jarFileData.getLazyClasses() != null) {
+                    for (LazyClass cls : jarFileData.getLazyClasses()) {
+                        byte[] bytes = cls.getBytes();
+
+                        if (bytes == null) // disassembled, but not materialized
+                            bytes = ClassPool.serialize(cls.getNode(), new ClassWriter(0));
+
+                        classes.add(new ClassRecord(indexOffset, bytes.length,
+                                cls.getReaderFlags(), cls.isModified(), cls.getHeader()));
+                        out.write(bytes);
+                        indexOffset += bytes.length;
+                    }
+                }
+
+                if (jarFileData.getInjectedEntries() != null) {
+                    for (Map.Entry<JarEntry, EntryContent> entry : jarFileData.getInjectedEntries().entrySet()) {
+                        byte[] bytes = entry.getValue().toByteArray();
+                        entries.add(new EntryRecord(entry.getKey(), indexOffset, bytes.length));
+                        out.write(bytes);
+                        indexOffset += bytes.length;
+                    }
+                }
+
+                out.writeInt(classes.size());
+
+                for (ClassRecord cls : classes) {
+                    out.writeLong(cls.offset);
+                    out.writeInt(cls.length);
+                    out.writeInt(cls.readerFlags);
+                    out.writeBoolean(cls.modified);
+                    out.writeInt(cls.header.getAccess());
+                    writeString(out, cls.header.getName());
+                    writeString(out, cls.header.getSuperName());
+                    out.writeInt(cls.header.getInterfaces().size());
+
+                    for (String itf : cls.header.getInterfaces())
+                        writeString(out, itf);
+                }
+
+                out.writeInt(entries.size());
+
+                for (EntryRecord entry : entries) {
+                    writeString(out, entry.entry.getName());
+                    out.writeLong(entry.entry.getTime());
+                    writeBytes(out, entry.entry.getExtra());
+                    writeString(out, entry.entry.getComment());
+                    out.writeLong(entry.offset);
+                    out.writeInt(entry.length);
+                }
+
+                out.writeInt(END_MAGIC);
+            }
+
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                ByteBuffer offset = ByteBuffer.allocate(8).putLong(0, indexOffset);
+
+                while (offset.hasRemaining())
+                    channel.write(offset, INDEX_OFFSET_POS + offset.position());
+
+                channel.force(false);
+            }
+
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    public static JarFileData load(@NonNull Path file, @NonNull String tag) throws IOException {
+        // Throws if the snapshot is corrupted, has another tag, or its jar file has changed.
+        MappedByteBuffer buffer;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("snapshot is too large to be mapped: " + file);
+
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        ClassSource source;
+
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                throw new StreamCorruptedException("not a snapshot (or of another version): " + file);
+
+            long indexOffset = buffer.getLong();
+
+            if (!tag.equals(readString(buffer)))
+                throw new IOException("snapshot has another tag: " + file);
+
+            String jarPath = readString(buffer);
+
+            if (jarPath == null)
+                throw new StreamCorruptedException("snapshot has no jar file: " + file);
+
+            File jar = new File(jarPath);
+            long jarSize = buffer.getLong();
+            long jarLastModified = buffer.getLong();
+            boolean mapped = buffer.get() != 0;
+
+            if (indexOffset < buffer.position() || indexOffset > buffer.limit())
+                throw new StreamCorruptedException("invalid snapshot index offset: " + file);
+
+            if (jar.length() != jarSize || jar.lastModified() != jarLastModified)
+                throw new IOException("jar file " + jar + " has changed since the snapshot was saved");
+
+            buffer.position((int) indexOffset);
+            source = mapped ? new ArchiveClassSource(jar) : new JarClassSource(new JarFile(jar));
+        } catch (BufferUnderflowException ex) {
+            throw new StreamCorruptedException("truncated snapshot: " + file);
+        }
+
+        try {
+            return readIndex(buffer, source, buffer.position());
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            source.close();
+            throw new StreamCorruptedException("corrupted snapshot index: " + file);
+        } catch (Throwable t) {
+            source.close();
+            throw t;
+        }
+    }
+
+    private static JarFileData readIndex(MappedByteBuffer buffer,
+                                         ClassSource source, int indexOffset) throws IOException {
+        int classCount = buffer.getInt();
+
+        if (classCount < 0 || (long) classCount * MIN_CLASS_RECORD_SIZE > buffer.remaining())
+            throw new StreamCorruptedException("invalid number of classes: " + classCount);
+
+        Set<LazyClass> lazyClasses = new LinkedHashSet<>();
+
+        for (int i = 0; i < classCount; i++) {
+            long offset = buffer.getLong();
+            int length = buffer.getInt();
+            int readerFlags = buffer.getInt();
+            boolean modified = buffer.get() != 0;
+            ByteBuffer region = region(buffer, offset, length, indexOffset);
+            ClassHeader header = readHeader(buffer);
+
+            // Bytes are only read (from the mapped file) once the class is accessed.
+            lazyClasses.add(LazyClass.of(header, length, () -> bytesOf(region), readerFlags, modified));
+        }
+
+        int entryCount = buffer.getInt();
+        Map<JarEntry, EntryContent> injectedEntries = entryCount > 0 ? new LinkedHashMap<>() : null;
+
+        for (int i = 0; i < entryCount; i++) {
+            JarEntry entry = new JarEntry(readString(buffer));
+            long time = buffer.getLong();
+            byte[] extra = readBytes(buffer);
+            String comment = readString(buffer);
+
+            if (time != -1) entry.setTime(time);
+            if (extra != null) entry.setExtra(extra);
+            if (comment != null) entry.setComment(comment);
+
+            // Contents are not copied to the heap, but read from the mapped file.
+            injectedEntries.put(entry, EntryContent.of(region(buffer, buffer.getLong(), buffer.getInt(), indexOffset)));
+        }
+
+        if (buffer.getInt() != END_MAGIC)
+            throw new StreamCorruptedException("invalid end of snapshot");
+
+        // Jar files are not wrapped in a ClassSource in advance (see JarFileData#getSource).
+        return source instanceof JarClassSource
+                ? new JarFileData(((JarClassSource) source).getJarFile(),
+                        new ClassPool(), injectedEntries, null, lazyClasses)
+                : new JarFileData(null, new ClassPool(), injectedEntries, source, lazyClasses);
+    }
+
+    private static ClassHeader readHeader(ByteBuffer buffer) throws IOException {
+        int access = buffer.getInt();
+        String name = readString(buffer);
+        String superName = readString(buffer);
+        int interfaceCount = buffer.getInt();
+
+        if (name == null || interfaceCount < 0 || (long) interfaceCount * 4 > buffer.remaining())
+            throw new StreamCorruptedException("invalid class header");
+
+        List<String> interfaces = new ArrayList<>(interfaceCount);
+
+        for (int i = 0; i < interfaceCount; i++)
+            interfaces.add(readString(buffer));
+
+        return new ClassHeader(access, name, superName, Collections.unmodifiableList(interfaces));
+    }
+
+    private static ByteBuffer region(ByteBuffer buffer, long offset, int length, int dataEnd) {
+        if (offset < 0 || length < 0 || offset + length > dataEnd)
+            throw new IllegalArgumentException("invalid region");
+
+        ByteBuffer region = buffer.duplicate();
+        region.position((int) offset);
+        region.limit((int) offset + length);
+
+        return region.slice();
+    }
+
+    private static byte[] bytesOf(ByteBuffer region) {
+        byte[] bytes = new byte[region.remaining()];
+        region.duplicate().get(bytes);
+
+        return bytes;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s != null ? s.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null)
+            out.writeInt(-1);
+        else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = readBytes(buffer);
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+
+        if (length < -1 || length > buffer.remaining())
+            throw new BufferUnderflowException();
+
+        if (length == -1)
+            return null;
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return bytes;
+    }
+
+    @RequiredArgsConstructor
+    private static final class ClassRecord {
+        private final long offset;
+        private final int length, readerFlags;
+        private final boolean modified;
+        private final ClassHeader header;
+    }
+
+    @RequiredArgsConstructor
+    private static final class EntryRecord {
+        private final JarEntry entry;
+        private final long offset;
+        private final int length;
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.util;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.File;
+import java.util.List;
+
+/*
+ * A limit of the (estimated) heap taken by disassembled classes of JarFileData. Once it is exceeded, cold classes
+ * (the ones disassembled or reloaded the longest ago) are evicted until their size falls well below the limit:
+ * unmodified classes first, to be reloaded from their source entries as they are, and then modified ones,
+ * serialized to a spill file. Evicted classes become lazy (see JarFileData#getLazyClasses), and are reloaded
+ * on next access. Unmodified classes that cannot be reloaded (e.g. ones of nested sources) stay resident.
+ *
+ * Evicted ClassNodes are not used anymore, so they must not be retained (e.g. by walkers) once they are
+ * processed. A budget can be shared by several JarFileData - its statistics are then summed over all of them.
+ */
+@Getter
+public class MemoryBudget {
+
+    private static final long CLASS_SIZE      = 512;
+    private static final long FIELD_SIZE      = 128;
+    private static final long METHOD_SIZE     = 256;
+    private static final long INSN_SIZE       = 48;
+    private static final long TRY_CATCH_SIZE  = 64;
+    private static final long LOCAL_VAR_SIZE  = 64;
+    private static final long ANNOTATION_SIZE = 96;
+
+    private final long maxSize; // in bytes, as estimated by estimateSize
+
+    private File spillDirectory; // null = the default temporary-file directory
+
+    private final MemoryStatistics statistics = new MemoryStatistics();
+
+    public MemoryBudget(long maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("maxSize cannot be negative");
+
+        this.maxSize = maxSize;
+    }
+
+    public MemoryBudget spillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    public static long estimateSize(@NonNull ClassNode cls) {
+        // A rough estimate of the heap taken by the tree of the given class, not counting
+        // strings (which are often shared). Only sizes of lists are looked at, so it is cheap.
+        long size = CLASS_SIZE + annotationsSize(cls.visibleAnnotations) + annotationsSize(cls.invisibleAnnotations);
+
+        if (cls.fields != null)
+            for (FieldNode fld : cls.fields)
+                size += FIELD_SIZE + annotationsSize(fld.visibleAnnotations)
+                        + annotationsSize(fld.invisibleAnnotations);
+
+        if (cls.methods != null) {
+            for (MethodNode mtd : cls.methods) {
+                size += METHOD_SIZE + annotationsSize(mtd.visibleAnnotations)
+                        + annotationsSize(mtd.invisibleAnnotations);
+
+                if (mtd.instructions != null)     size += mtd.instructions.size() * INSN_SIZE;
+                if (mtd.tryCatchBlocks != null)   size += mtd.tryCatchBlocks.size() * TRY_CATCH_SIZE;
+                if (mtd.localVariables != null)   size += mtd.localVariables.size() * LOCAL_VAR_SIZE;
+            }
+        }
+
+        return size;
+    }
+
+    private static long annotationsSize(List<AnnotationNode> annotations) {
+        return annotations != null ? annotations.size() * ANNOTATION_SIZE : 0;
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters of a MemoryBudget (summed over all JarFileData using it). Thread-safe.
+public class MemoryStatistics {
+
+    private final AtomicLong residentSize = new AtomicLong();
+
+    private final AtomicLong peakResidentSize = new AtomicLong();
+
+    private final LongAdder classesEvicted = new LongAdder();
+
+    private final LongAdder classesSpilled = new LongAdder();
+
+    private final LongAdder classesReloaded = new LongAdder();
+
+    private final LongAdder spillBytesWritten = new LongAdder();
+
+    private final LongAdder spillBytesRead = new LongAdder();
+
+    void resident(long delta) {
+        long size = residentSize.addAndGet(delta);
+        peakResidentSize.accumulateAndGet(size, Math::max);
+    }
+
+    void evicted(boolean spilled, long spillBytes) {
+        classesEvicted.increment();
+
+        if (spilled) {
+            classesSpilled.increment();
+            spillBytesWritten.add(spillBytes);
+        }
+    }
+
+    void reloaded() {
+        classesReloaded.increment();
+    }
+
+    void spillRead(long bytes) {
+        spillBytesRead.add(bytes);
+    }
+
+    public long getResidentSize() {
+        // Estimated heap taken by disassembled classes right now (see MemoryBudget#estimateSize).
+        return residentSize.get();
+    }
+
+    public long getPeakResidentSize() {
+        return peakResidentSize.get();
+    }
+
+    public long getClassesEvicted() {
+        // Including spilled ones.
+        return classesEvicted.sum();
+    }
+
+    public long getClassesSpilled() {
+        return classesSpilled.sum();
+    }
+
+    public long getClassesReloaded() {
+        return classesReloaded.sum();
+    }
+
+    public long getSpillBytesWritten() {
+        return spillBytesWritten.sum();
+    }
+
+    public long getSpillBytesRead() {
+        return spillBytesRead.sum();
+    }
+
+    public void reset() {
+        // The resident size is not reset, as it describes classes that are still there.
+        peakResidentSize.set(residentSize.get());
+        classesEvicted.reset();
+        classesSpilled.reset();
+        classesReloaded.reset();
+        spillBytesWritten.reset();
+        spillBytesRead.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "resident: " + getResidentSize() + " bytes (peak " + getPeakResidentSize() + " bytes), "
+                + "evicted: " + getClassesEvicted() + " classes (" + getClassesSpilled() + " spilled), "
+                + "reloaded: " + getClassesReloaded() + " classes, "
+                + "spill I/O: " + getSpillBytesWritten() + " bytes written, " + getSpillBytesRead() + " bytes read";
+    }
+
+}
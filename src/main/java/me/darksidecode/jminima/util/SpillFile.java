@@ -0,0 +1,77 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.util;
+
+import lombok.NonNull;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// An append-only temporary file that is deleted once closed. Regions are read concurrently, but written sequentially.
+final class SpillFile implements Closeable {
+
+    private final FileChannel channel;
+
+    private long size;
+
+    SpillFile(File dir) throws IOException {
+        Path path = dir != null ? Files.createTempFile(dir.toPath(), "jminima-", ".spill")
+                : Files.createTempFile("jminima-", ".spill");
+
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException ex) {
+            Files.deleteIfExists(path);
+            throw ex;
+        }
+    }
+
+    synchronized long write(@NonNull byte[] bytes) throws IOException {
+        // Returns the position of the written region.
+        long pos = size;
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        while (buffer.hasRemaining())
+            channel.write(buffer, pos + buffer.position());
+
+        size += bytes.length;
+        return pos;
+    }
+
+    byte[] read(long pos, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(len);
+
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, pos + buffer.position()) < 0)
+                throw new EOFException("unexpected end of spill file");
+
+        return buffer.array();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -18,12 +18,23 @@ package me.darksidecode.jminima.workflow;
 
 import lombok.NonNull;
 import me.darksidecode.jminima.JMinima;
+import me.darksidecode.jminima.disassembling.ClassDetail;
+import me.darksidecode.jminima.disassembling.ClassDetailsSelector;
 import me.darksidecode.jminima.phase.EmittedValue;
 import me.darksidecode.jminima.phase.Phase;
 import me.darksidecode.jminima.phase.PhaseExecutionException;
 import me.darksidecode.jminima.phase.TargetNotEmittedException;
+import me.darksidecode.jminima.phase.basic.OpenClassSourcePhase;
+import me.darksidecode.jminima.phase.basic.OpenJarFilePhase;
+import me.darksidecode.jminima.source.ClassSource;
+import me.darksidecode.jminima.util.JarFileData;
+import me.darksidecode.jminima.util.JarFileDataSnapshot;
 
 import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 public class Workflow implements Closeable {
@@ -56,6 +67,16 @@ public class Workflow implements Closeable {
 
     private int currentPhase;
 
+    private File checkpointDir; // null = do not save checkpoints
+
+    private final BitSet checkpointPhases = new BitSet(); // indexes of phases to save checkpoints after
+
+    private final Map<Integer, String> checkpointVersions = new HashMap<>(); // by indexes of phases
+
+    private final List<Throwable> checkpointErrors = new ArrayList<>();
+
+    private int resumedAfterPhase = -1; // -1 = not resumed from a checkpoint
+
     @Override
     public void close() {
         emittedValues.values().forEach(this::close);
@@ -96,6 +117,9 @@ public class Workflow implements Closeable {
 
     public Workflow clearState() {
         currentPhase = 0;
+        resumedAfterPhase = -1;
+        checkpointPhases.clear();
+        checkpointVersions.clear();
         phases.clear();
         return this;
     }
@@ -118,19 +142,59 @@ public class Workflow implements Closeable {
         return this;
     }
 
+    public Workflow checkpoints(File checkpointDir) {
+        // Save emitted values to the given directory (one per workflow) after phases marked with checkpoint(),
+        // and resume from the latest valid checkpoint there on executeAll (null = never save checkpoints).
+        this.checkpointDir = checkpointDir;
+        return this;
+    }
+
+    public Workflow checkpoint() {
+        return checkpoint(null);
+    }
+
+    public Workflow checkpoint(String version) {
+        // Save a checkpoint after the last added phase (see checkpoints). Only JarFileData (and its
+        // jar file or mapped archive) can be saved, so the phase is expected to emit (or be followed by) JarFileData.
+        // Checkpoints are not resumed once the version changes, e.g. as code passed to phases has (null = none).
+        // Phases with settings that cannot be described (see Phase#getConfiguration) are only checkpointed
+        // after a version is given to this or an earlier checkpoint after them.
+        if (phases.isEmpty())
+            throw new IllegalStateException("no phases to save a checkpoint after");
+
+        checkpointPhases.set(phases.size() - 1);
+
+        if (version != null)
+            checkpointVersions.put(phases.size() - 1, version);
+        else
+            checkpointVersions.remove(phases.size() - 1);
+
+        return this;
+    }
+
     public WorkflowExecutionResult executeAll() {
         if (phases.isEmpty())
             throw new IllegalStateException("no phases to execute");
 
+        if (checkpointDir != null && currentPhase == 0 && emittedValues.isEmpty())
+            resume();
+
         while (!hasFullyCompleted() && executeNext())
             currentPhase++;
 
+        WorkflowExecutionResult result;
+
         if (phaseErrors.isEmpty())
-            return WorkflowExecutionResult.FULL_SUCCESS;
+            result = WorkflowExecutionResult.FULL_SUCCESS;
         else if (phaseErrors.values().stream().noneMatch(PhaseExecutionException::isFatal))
-            return WorkflowExecutionResult.PARTIAL_SUCCESS;
+            result = WorkflowExecutionResult.PARTIAL_SUCCESS;
         else
-            return WorkflowExecutionResult.FATAL_FAILURE;
+            result = WorkflowExecutionResult.FATAL_FAILURE;
+
+        if (checkpointDir != null && hasFullyCompleted() && result != WorkflowExecutionResult.FATAL_FAILURE)
+            deleteCheckpoints(); // so that the next run starts from scratch
+
+        return result;
     }
 
     public boolean executeNext() {
@@ -148,6 +212,9 @@ public class Workflow implements Closeable {
         EmittedValue<?> result;
 
         try {
+            if (nextPhase instanceof ClassDetailsSelector)
+                ((ClassDetailsSelector) nextPhase).selectClassDetails(getRequiredClassDetails(currentPhase + 1));
+
             nextPhase.getWatcher().beforeExecution(target.getValue(), target.getError());
             result = nextPhase.executeNoExcept(target.getValue(), target.getError());
 
@@ -175,7 +242,161 @@ public class Workflow implements Closeable {
                 phaseErrors.put(nextPhase.getClass(), result.getError());
         }
 
-        return result == null || result.getError() == null || !result.getError().isFatal(); // true = continue
+        boolean proceed = result == null || result.getError() == null || !result.getError().isFatal();
+
+        if (proceed && checkpointDir != null && checkpointPhases.get(currentPhase))
+            saveCheckpoint(currentPhase);
+
+        return proceed; // true = continue
+    }
+
+    private void resume() {
+        for (int phase = checkpointPhases.previousSetBit(phases.size() - 1);
+             phase >= 0; phase = checkpointPhases.previousSetBit(phase - 1)) {
+            Path file = getCheckpointFile(phase);
+
+            if (!Files.exists(file))
+                continue;
+
+            try {
+                JarFileData jarFileData = JarFileDataSnapshot.load(file, getCheckpointTag(phase));
+                ClassSource source = jarFileData.getSource();
+                File jar = source.getFile().getAbsoluteFile();
+                File inputFile = getInputFile(phase);
+
+                if (inputFile != null && !jar.equals(inputFile)) {
+                    jarFileData.close();
+                    source.close();
+                    throw new IOException("checkpoint " + file + " is of jar file " + jar
+                            + ", but the workflow opens " + inputFile);
+                }
+
+                // Emitted as it was by the phase that opened it (a JarFile, or a ClassSource).
+                Object opened = jarFileData.getJarFile() != null ? jarFileData.getJarFile() : source;
+                emittedValues.put(opened.getClass(), new EmittedValue<>(opened));
+                emittedValues.put(JarFileData.class, new EmittedValue<>(jarFileData));
+                currentPhase = phase + 1;
+                resumedAfterPhase = phase;
+
+                return;
+            } catch (Throwable t) {
+                // Corrupted, or outdated (e.g. the jar file has changed) - try an earlier one.
+                if (JMinima.debug) t.printStackTrace();
+                checkpointErrors.add(t);
+            }
+        }
+    }
+
+    private void saveCheckpoint(int phase) {
+        // Errors are not fatal, as the workflow itself can still continue.
+        try {
+            JarFileData jarFileData = null;
+
+            for (EmittedValue<?> value : emittedValues.values())
+                if (value.getValue() instanceof JarFileData)
+                    jarFileData = (JarFileData) value.getValue();
+
+            if (jarFileData == null)
+                throw new IOException("no JarFileData to save a checkpoint of after phase " + phase);
+
+            for (EmittedValue<?> value : emittedValues.values())
+                if (value.getValue() != jarFileData && value.getValue() != jarFileData.getJarFile()
+                        && value.getValue() != jarFileData.getSource())
+                    throw new IOException("cannot save a checkpoint of emitted value of type "
+                            + value.getValue().getClass().getName() + " after phase " + phase);
+
+            JarFileDataSnapshot.save(jarFileData, getCheckpointFile(phase), getCheckpointTag(phase));
+        } catch (Throwable t) {
+            if (JMinima.debug) t.printStackTrace();
+            checkpointErrors.add(t);
+        }
+    }
+
+    private void deleteCheckpoints() {
+        for (int phase = checkpointPhases.nextSetBit(0); phase >= 0; phase = checkpointPhases.nextSetBit(phase + 1)) {
+            try {
+                Files.deleteIfExists(getCheckpointFile(phase));
+            } catch (IOException ex) {
+                if (JMinima.debug) ex.printStackTrace();
+                checkpointErrors.add(ex);
+            }
+        }
+    }
+
+    private Path getCheckpointFile(int phase) {
+        return checkpointDir.toPath().resolve("checkpoint-" + phase + ".snapshot");
+    }
+
+    private String getCheckpointTag(int phase) throws IOException {
+        // Checkpoints are only valid for workflows that open the same jar file and have the same phases
+        // (with the same configuration and checkpoint versions) up to (and including) the given one.
+        File inputFile = getInputFile(phase);
+        StringBuilder tag = new StringBuilder(inputFile != null ? inputFile.getPath() : "").append(';');
+
+        for (int i = 0; i <= phase; i++) {
+            Phase<?, ?> previous = phases.get(i);
+            String configuration = previous.getConfiguration();
+
+            if (configuration == null && !hasCheckpointVersion(i, phase))
+                throw new IOException("phase " + previous.getClass().getName() + " has settings that cannot be"
+                        + " described, so checkpoints after it need a version (see Workflow#checkpoint)");
+
+            tag.append(previous.getClass().getName()).append('(').append(configuration);
+
+            if (previous instanceof ClassDetailsSelector)
+                tag.append(' ').append(getRequiredClassDetails(i + 1)); // what it is going to select
+
+            tag.append(')');
+
+            if (checkpointVersions.containsKey(i))
+                tag.append('@').append(checkpointVersions.get(i));
+
+            tag.append(';');
+        }
+
+        return tag.toString();
+    }
+
+    private boolean hasCheckpointVersion(int fromPhase, int toPhase) {
+        for (int phase : checkpointVersions.keySet())
+            if (phase >= fromPhase && phase <= toPhase)
+                return true;
+
+        return false;
+    }
+
+    private File getInputFile(int phase) {
+        // Absolute path of the file opened by the first of the given phases that opens one (null = none).
+        for (Phase<?, ?> previous : phases.subList(0, phase + 1)) {
+            File file = previous instanceof OpenJarFilePhase ? ((OpenJarFilePhase) previous).getFile()
+                    : previous instanceof OpenClassSourcePhase ? ((OpenClassSourcePhase) previous).getFile()
+                    : null;
+
+            if (file != null)
+                return file.getAbsoluteFile();
+        }
+
+        return null;
+    }
+
+    public int getResumedAfterPhase() {
+        // Index of the phase whose checkpoint the last executeAll has resumed from, or -1 if it has not.
+        return resumedAfterPhase;
+    }
+
+    public List<Throwable> getCheckpointErrors() {
+        // Errors of saving, loading and deleting checkpoints (these are never phase errors).
+        return Collections.unmodifiableList(checkpointErrors);
+    }
+
+    private Set<ClassDetail> getRequiredClassDetails(int fromPhase) {
+        // Only phases that are already added are considered, so phases must not be added during execution.
+        Set<ClassDetail> details = EnumSet.noneOf(ClassDetail.class);
+
+        for (Phase<?, ?> phase : phases.subList(fromPhase, phases.size()))
+            details.addAll(phase.getRequiredClassDetails());
+
+        return details;
     }
 
     public boolean hasFullyCompleted() {
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.zip;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.jar.JarEntry;
+
+public class ArchiveEntry extends JarEntry {
+
+    @Getter
+    private final int flags;
+
+    @Getter
+    private final int dosTime;
+
+    @Getter
+    private final long localHeaderOffset;
+
+    long dataOffset = -1; // resolved lazily from the local file header
+
+    ArchiveEntry(@NonNull String name, int flags, int dosTime, long localHeaderOffset) {
+        super(name);
+        this.flags = flags;
+        this.dosTime = dosTime;
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.zip;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.UtilityClass;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+@UtilityClass
+public class CentralDirectory {
+
+    static final int LOC_SIG        = 0x04034b50;
+    static final int CEN_SIG        = 0x02014b50;
+    static final int END_SIG        = 0x06054b50;
+    static final int ZIP64_END_SIG  = 0x06064b50;
+    static final int ZIP64_LOC_SIG  = 0x07064b50;
+
+    static final int LOC_HEADER_SIZE       = 30;
+    static final int CEN_HEADER_SIZE       = 46;
+    static final int END_HEADER_SIZE       = 22;
+    static final int ZIP64_LOC_HEADER_SIZE = 20;
+    static final int ZIP64_END_HEADER_SIZE = 56;
+
+    static final int  ZIP64_EXTRA_ID = 0x0001;
+    static final long ZIP64_MAGIC    = 0xFFFFFFFFL;
+
+    static final int FLAG_ENCRYPTED       = 0b1;
+    static final int FLAG_DATA_DESCRIPTOR = 0b1000;
+    static final int FLAG_UTF8            = 0b1000_0000_0000;
+
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+    public static Map<String, ArchiveEntry> read(@NonNull ByteBuffer archive) throws ZipException {
+        ByteBuffer buf = archive.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        Map<String, ArchiveEntry> entries = new LinkedHashMap<>();
+
+        try {
+            Location location = locate((pos, len) -> slice(buf, pos, len), buf.limit());
+            forEachRecord(slice(buf, location.offset, (int) location.size), location.count,
+                    (entry, record) -> entries.putIfAbsent(entry.getName(), entry));
+        } catch (ZipException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            throw new IllegalStateException("unexpected I/O exception", ex); // buffers do not perform any I/O
+        }
+
+        return entries;
+    }
+
+    static Location locate(@NonNull FileChannel channel) throws IOException {
+        return locate((pos, len) -> read(channel, pos, len), channel.size());
+    }
+
+    static ByteBuffer read(@NonNull FileChannel channel, long pos, int len) throws IOException {
+        ByteBuffer region = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (region.hasRemaining())
+            if (channel.read(region, pos + region.position()) < 0)
+                throw new ZipException("unexpected end of archive");
+
+        region.flip();
+        return region;
+    }
+
+    static void forEachRecord(@NonNull ByteBuffer cen, long count,
+                              @NonNull RecordConsumer consumer) throws IOException {
+        ByteBuffer buf = cen.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int pos = 0;
+
+        for (long i = 0; i < count; i++) {
+            if (pos + CEN_HEADER_SIZE > buf.limit() || buf.getInt(pos) != CEN_SIG)
+                throw new ZipException("invalid central directory header at offset " + pos);
+
+            int len = CEN_HEADER_SIZE
+                    + Short.toUnsignedInt(buf.getShort(pos + 28))
+                    + Short.toUnsignedInt(buf.getShort(pos + 30))
+                    + Short.toUnsignedInt(buf.getShort(pos + 32));
+
+            if (pos + len > buf.limit())
+                throw new ZipException("truncated central directory header at offset " + pos);
+
+            consumer.accept(readEntry(buf, pos), slice(buf, pos, len));
+            pos += len;
+        }
+    }
+
+    private static Location locate(RegionReader reader, long archiveSize) throws IOException {
+        int tailLen = (int) Math.min(archiveSize, END_HEADER_SIZE + MAX_COMMENT_LENGTH);
+        long tailPos = archiveSize - tailLen;
+        ByteBuffer tail = reader.read(tailPos, tailLen);
+        int endPos = findEnd(tail);
+        long endOffset = tailPos + endPos;
+        long count = Short.toUnsignedLong(tail.getShort(endPos + 10));
+        long cenSize = Integer.toUnsignedLong(tail.getInt(endPos + 12));
+        long cenOffset = Integer.toUnsignedLong(tail.getInt(endPos + 16));
+        long zip64LocPos = endOffset - ZIP64_LOC_HEADER_SIZE;
+
+        if (zip64LocPos >= 0 && reader.read(zip64LocPos, ZIP64_LOC_HEADER_SIZE).getInt(0) == ZIP64_LOC_SIG) {
+            long zip64EndPos = reader.read(zip64LocPos, ZIP64_LOC_HEADER_SIZE).getLong(8);
+
+            if (zip64EndPos < 0 || zip64EndPos > zip64LocPos - ZIP64_END_HEADER_SIZE)
+                throw new ZipException("invalid zip64 end of central directory record");
+
+            ByteBuffer zip64End = reader.read(zip64EndPos, ZIP64_END_HEADER_SIZE);
+
+            if (zip64End.getInt(0) != ZIP64_END_SIG)
+                throw new ZipException("invalid zip64 end of central directory record");
+
+            count = zip64End.getLong(32);
+            cenSize = zip64End.getLong(40);
+            cenOffset = zip64End.getLong(48);
+            endOffset = zip64EndPos;
+        }
+
+        if (count < 0 || cenSize < 0 || cenOffset < 0 || cenOffset + cenSize > endOffset)
+            throw new ZipException("invalid central directory offset " + cenOffset + " or size " + cenSize);
+
+        return new Location(cenOffset, cenSize, count);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, long pos, int len) {
+        ByteBuffer region = buf.duplicate();
+        region.position((int) pos);
+        region.limit((int) pos + len);
+        return region.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static long dataOffset(@NonNull ByteBuffer archive, @NonNull ArchiveEntry entry) throws ZipException {
+        if (entry.dataOffset < 0) {
+            ByteBuffer buf = archive.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            long pos = entry.getLocalHeaderOffset();
+
+            if (pos + LOC_HEADER_SIZE > buf.limit() || buf.getInt((int) pos) != LOC_SIG)
+                throw new ZipException("invalid local file header of entry " + entry.getName());
+
+            entry.dataOffset = pos + LOC_HEADER_SIZE
+                    + Short.toUnsignedInt(buf.getShort((int) pos + 26))
+                    + Short.toUnsignedInt(buf.getShort((int) pos + 28));
+
+            if (entry.dataOffset + entry.getCompressedSize() > buf.limit())
+                throw new ZipException("truncated data of entry " + entry.getName());
+        }
+
+        return entry.dataOffset;
+    }
+
+    private static int findEnd(ByteBuffer buf) throws ZipException {
+        int minPos = Math.max(0, buf.limit() - END_HEADER_SIZE - MAX_COMMENT_LENGTH);
+
+        for (int pos = buf.limit() - END_HEADER_SIZE; pos >= minPos; pos--)
+            if (buf.getInt(pos) == END_SIG
+                    && pos + END_HEADER_SIZE + Short.toUnsignedInt(buf.getShort(pos + 20)) == buf.limit())
+                return pos;
+
+        throw new ZipException("end of central directory record not found (not a zip archive?)");
+    }
+
+    private static ArchiveEntry readEntry(ByteBuffer buf, int pos) throws ZipException {
+        int flags = Short.toUnsignedInt(buf.getShort(pos + 8));
+        int method = Short.toUnsignedInt(buf.getShort(pos + 10));
+        int dosTime = buf.getInt(pos + 12);
+        long crc = Integer.toUnsignedLong(buf.getInt(pos + 16));
+        long compressedSize = Integer.toUnsignedLong(buf.getInt(pos + 20));
+        long size = Integer.toUnsignedLong(buf.getInt(pos + 24));
+        int nameLen = Short.toUnsignedInt(buf.getShort(pos + 28));
+        int extraLen = Short.toUnsignedInt(buf.getShort(pos + 30));
+        int commentLen = Short.toUnsignedInt(buf.getShort(pos + 32));
+        long localHeaderOffset = Integer.toUnsignedLong(buf.getInt(pos + 42));
+
+        byte[] name = new byte[nameLen];
+        byte[] extra = new byte[extraLen];
+        byte[] comment = new byte[commentLen];
+        ByteBuffer record = buf.duplicate();
+        record.position(pos + CEN_HEADER_SIZE);
+        record.get(name).get(extra).get(comment);
+
+        // Real values of the fields that did not fit in 32 bits are stored in the zip64 extra field.
+        for (int off = 0; off + 4 <= extraLen; ) {
+            int id = Short.toUnsignedInt(getShort(extra, off));
+            int len = Short.toUnsignedInt(getShort(extra, off + 2));
+            int dataOff = off + 4;
+
+            if (id == ZIP64_EXTRA_ID) {
+                if (size == ZIP64_MAGIC && dataOff + 8 <= off + 4 + len) {
+                    size = getLong(extra, dataOff);
+                    dataOff += 8;
+                }
+
+                if (compressedSize == ZIP64_MAGIC && dataOff + 8 <= off + 4 + len) {
+                    compressedSize = getLong(extra, dataOff);
+                    dataOff += 8;
+                }
+
+                if (localHeaderOffset == ZIP64_MAGIC && dataOff + 8 <= off + 4 + len)
+                    localHeaderOffset = getLong(extra, dataOff);
+
+                break;
+            }
+
+            off += 4 + len;
+        }
+
+        if (size < 0 || compressedSize < 0 || localHeaderOffset < 0)
+            throw new ZipException("invalid zip64 extra field in central directory header at offset " + pos);
+
+        ArchiveEntry entry = new ArchiveEntry(
+                new String(name, StandardCharsets.UTF_8), flags, dosTime, localHeaderOffset);
+
+        entry.setMethod(method);
+        entry.setCrc(crc);
+        entry.setSize(size);
+        entry.setCompressedSize(compressedSize);
+
+        long time = dosToJavaTime(dosTime);
+        if (time != -1) entry.setTime(time);
+
+        if (extraLen > 0) {
+            try {
+                entry.setExtra(extra); // also picks extended timestamps, if any
+            } catch (IllegalArgumentException ignored) {}
+        }
+
+        if (commentLen > 0)
+            entry.setComment(new String(comment, StandardCharsets.UTF_8));
+
+        return entry;
+    }
+
+    static long dosToJavaTime(int dosTime) {
+        try {
+            return LocalDateTime.of(
+                    ((dosTime >> 25) & 0x7F) + 1980,
+                    (dosTime >> 21) & 0x0F,
+                    (dosTime >> 16) & 0x1F,
+                    (dosTime >> 11) & 0x1F,
+                    (dosTime >> 5) & 0x3F,
+                    (dosTime << 1) & 0x3E
+            ).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeException ex) {
+            return -1; // malformed date
+        }
+    }
+
+    static int javaToDosTime(long time) {
+        LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        int year = date.getYear() - 1980;
+
+        if (year < 0)
+            return (1 << 21) | (1 << 16); // 1980-01-01 00:00:00, the earliest representable date
+
+        if (year > 0x7F)
+            year = 0x7F;
+
+        return year << 25
+                | date.getMonthValue() << 21
+                | date.getDayOfMonth() << 16
+                | date.getHour() << 11
+                | date.getMinute() << 5
+                | date.getSecond() >> 1;
+    }
+
+    static byte[] stripZip64Extra(byte[] extra) {
+        if (extra == null)
+            return new byte[0];
+
+        // Zip64 extended information is regenerated on write, when needed.
+        ByteBuffer result = ByteBuffer.allocate(extra.length);
+
+        for (int off = 0; off + 4 <= extra.length; ) {
+            int id = Short.toUnsignedInt(getShort(extra, off));
+            int len = Math.min(Short.toUnsignedInt(getShort(extra, off + 2)), extra.length - off - 4);
+
+            if (id != ZIP64_EXTRA_ID)
+                result.put(extra, off, 4 + len);
+
+            off += 4 + len;
+        }
+
+        byte[] stripped = new byte[result.position()];
+        System.arraycopy(result.array(), 0, stripped, 0, stripped.length);
+
+        return stripped;
+    }
+
+    @RequiredArgsConstructor
+    static final class Location {
+        final long offset, size, count; // of the central directory
+    }
+
+    interface RecordConsumer {
+        void accept(ArchiveEntry entry, ByteBuffer record) throws IOException;
+    }
+
+    private interface RegionReader {
+        ByteBuffer read(long pos, int len) throws IOException;
+    }
+
+    private static short getShort(byte[] b, int off) {
+        return (short) ((b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8);
+    }
+
+    private static long getLong(byte[] b, int off) {
+        long value = 0;
+
+        for (int i = 7; i >= 0; i--)
+            value = value << 8 | (b[off + i] & 0xFF);
+
+        return value;
+    }
+
+}
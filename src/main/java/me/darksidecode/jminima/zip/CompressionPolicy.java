@@ -0,0 +1,177 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.zip;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/*
+ * Decides how entries are compressed: whether they are stored or deflated, and with which level.
+ * A new policy deflates everything with the default level, like JarOutputStream does.
+ */
+public class CompressionPolicy {
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "png", "jpg", "jpeg", "gif", "webp", "ico",
+            "jar", "war", "ear", "zip", "apk", "jmod",
+            "gz", "tgz", "bz2", "xz", "lz4", "lzma", "zst", "7z", "br",
+            "mp3", "mp4", "ogg", "woff", "woff2"
+    )));
+
+    private static final long SAMPLE_MIN_SIZE_FACTOR = 2; // smaller entries are not sampled
+
+    private boolean keepSourceMethod;
+
+    private Set<String> storedExtensions = Collections.emptySet();
+
+    private final NavigableMap<Long, Integer> levels = new TreeMap<>(); // min. entry size -> deflate level
+
+    private int sampleSize; // 0 = do not sample
+
+    private double maxSampleRatio;
+
+    @Getter
+    private final CompressionStatistics statistics = new CompressionStatistics();
+
+    public CompressionPolicy() {
+        levels.put(0L, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public static CompressionPolicy fast() {
+        // Trades a little output size for much faster saves.
+        return new CompressionPolicy()
+                .keepSourceMethod(true)
+                .storeCompressedPayloads()
+                .level(64 * 1024, Deflater.BEST_SPEED)
+                .sample(16 * 1024, 0.9);
+    }
+
+    public CompressionPolicy keepSourceMethod(boolean keepSourceMethod) {
+        // Store entries that were stored in the source jar.
+        this.keepSourceMethod = keepSourceMethod;
+        return this;
+    }
+
+    public CompressionPolicy storeCompressedPayloads() {
+        // Store entries that are compressed already, judging by their extensions (png, jar, zip...).
+        return storeExtensions(COMPRESSED_EXTENSIONS);
+    }
+
+    public CompressionPolicy storeExtensions(@NonNull Set<String> extensions) {
+        Set<String> storedExtensions = new HashSet<>(this.storedExtensions);
+
+        for (String extension : extensions)
+            storedExtensions.add(extension.toLowerCase(Locale.ROOT));
+
+        this.storedExtensions = storedExtensions;
+        return this;
+    }
+
+    public CompressionPolicy level(int level) {
+        // Deflate entries of all sizes with the given level.
+        checkLevel(level);
+        levels.clear();
+        levels.put(0L, level);
+        return this;
+    }
+
+    public CompressionPolicy level(long minSize, int level) {
+        // Deflate entries of the given size and larger with the given level (until the next larger size class).
+        if (minSize < 0)
+            throw new IllegalArgumentException("size cannot be negative");
+
+        checkLevel(level);
+        levels.put(minSize, level);
+        return this;
+    }
+
+    public CompressionPolicy sample(int sampleSize, double maxRatio) {
+        // Deflate the first bytes of large entries, and store those that get compressed worse than maxRatio.
+        if (sampleSize < 0)
+            throw new IllegalArgumentException("sample size cannot be negative");
+
+        if (maxRatio <= 0.0 || maxRatio > 1.0)
+            throw new IllegalArgumentException("max ratio must be in (0; 1]");
+
+        this.sampleSize = sampleSize;
+        this.maxSampleRatio = maxRatio;
+        return this;
+    }
+
+    Decision decide(@NonNull JarEntry source) {
+        if (keepSourceMethod && source.getMethod() == ZipEntry.STORED)
+            return Decision.KEEP_STORED;
+
+        String name = source.getName();
+        int dot = name.lastIndexOf('.');
+
+        if (dot != -1 && dot > name.lastIndexOf('/')
+                && storedExtensions.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT)))
+            return Decision.STORE_COMPRESSED;
+
+        return Decision.DEFLATE;
+    }
+
+    int levelFor(long size) {
+        return levels.floorEntry(Math.max(0, size)).getValue();
+    }
+
+    boolean isIncompressible(byte[] bytes, int length, Deflater deflater) {
+        if (sampleSize == 0 || length < sampleSize * SAMPLE_MIN_SIZE_FACTOR)
+            return false;
+
+        byte[] output = new byte[sampleSize + 64];
+        deflater.reset();
+        deflater.setLevel(Deflater.BEST_SPEED);
+        deflater.setInput(bytes, 0, sampleSize);
+        deflater.finish();
+
+        int len = 0;
+
+        while (!deflater.finished() && len < output.length)
+            len += deflater.deflate(output, len, output.length - len);
+
+        deflater.reset();
+
+        return !deflater.finished() && len >= output.length || (double) len / sampleSize > maxSampleRatio;
+    }
+
+    private static void checkLevel(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION
+                && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION))
+            throw new IllegalArgumentException("invalid deflate level: " + level);
+    }
+
+    public enum Decision {
+        DEFLATE,              // deflated with the level for its size
+        KEEP_STORED,          // stored, as it was stored in the source jar
+        STORE_COMPRESSED,     // stored, as it is compressed already
+        STORE_INCOMPRESSIBLE  // stored, as it is (or its sample is) not compressed well enough
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.zip;
+
+import lombok.NonNull;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Number of entries, bytes in and out, and time spent per decision of a CompressionPolicy. Thread-safe.
+public class CompressionStatistics {
+
+    private final Map<CompressionPolicy.Decision, Counters> counters = new EnumMap<>(CompressionPolicy.Decision.class);
+
+    CompressionStatistics() {
+        for (CompressionPolicy.Decision decision : CompressionPolicy.Decision.values())
+            counters.put(decision, new Counters());
+    }
+
+    void record(CompressionPolicy.Decision decision, long bytesIn, long bytesOut, long nanos) {
+        Counters c = counters.get(decision);
+        c.entries.increment();
+        c.bytesIn.add(bytesIn);
+        c.bytesOut.add(bytesOut);
+        c.nanos.add(nanos);
+    }
+
+    public long getEntries(@NonNull CompressionPolicy.Decision decision) {
+        return counters.get(decision).entries.sum();
+    }
+
+    public long getBytesIn(@NonNull CompressionPolicy.Decision decision) {
+        return counters.get(decision).bytesIn.sum();
+    }
+
+    public long getBytesOut(@NonNull CompressionPolicy.Decision decision) {
+        return counters.get(decision).bytesOut.sum();
+    }
+
+    public long getNanos(@NonNull CompressionPolicy.Decision decision) {
+        return counters.get(decision).nanos.sum();
+    }
+
+    public void reset() {
+        for (Counters c : counters.values()) {
+            c.entries.reset();
+            c.bytesIn.reset();
+            c.bytesOut.reset();
+            c.nanos.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+
+        for (CompressionPolicy.Decision decision : CompressionPolicy.Decision.values()) {
+            if (result.length() > 0)
+                result.append(", ");
+
+            result.append(decision).append(": ").append(getEntries(decision)).append(" entries, ")
+                    .append(getBytesIn(decision)).append(" -> ").append(getBytesOut(decision)).append(" bytes in ")
+                    .append(getNanos(decision) / 1_000_000).append(" ms");
+        }
+
+        return result.toString();
+    }
+
+    private static final class Counters {
+        private final LongAdder entries = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.zip;
+
+import lombok.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+/*
+ * Creates (compresses) records on a pool of worker threads, but always appends them to the
+ * archive in the order of submission. As compression of each entry does not depend on other
+ * entries, the resulting archive is byte-identical regardless of the number of threads.
+ */
+public class ParallelZipArchiveWriter implements Closeable {
+
+    private static final int TASKS_PER_THREAD = 4; // max. number of records in progress per thread
+
+    private final ZipArchiveWriter writer;
+
+    private final ExecutorService executor; // null = create records on the calling thread
+
+    private final int maxPending;
+
+    private final int compressionLevel;
+
+    private final Deque<Future<ZipRecord>> pending = new ArrayDeque<>();
+
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+
+    public ParallelZipArchiveWriter(@NonNull ZipArchiveWriter writer, int threads) {
+        this(writer, threads, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public ParallelZipArchiveWriter(@NonNull ZipArchiveWriter writer, int threads, int compressionLevel) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive");
+
+        this.writer = writer;
+        this.executor = threads > 1 ? Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "jminima-zip-writer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        this.maxPending = threads * TASKS_PER_THREAD;
+        this.compressionLevel = compressionLevel;
+    }
+
+    public void submit(@NonNull RecordTask task) throws IOException {
+        if (executor == null)
+            writer.write(create(task));
+        else {
+            pending.add(executor.submit(() -> create(task)));
+
+            while (pending.size() >= maxPending)
+                writeNext();
+        }
+    }
+
+    public void write(@NonNull ZipRecord record) throws IOException {
+        if (pending.isEmpty())
+            writer.write(record);
+        else {
+            pending.add(CompletableFuture.completedFuture(record)); // keep the order
+
+            while (pending.size() >= maxPending)
+                writeNext();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            while (!pending.isEmpty())
+                writeNext();
+        } finally {
+            pending.forEach(future -> future.cancel(true));
+            pending.clear();
+
+            if (executor != null)
+                executor.shutdownNow();
+
+            Deflater deflater;
+            while ((deflater = deflaters.poll()) != null)
+                deflater.end();
+
+            writer.close();
+        }
+    }
+
+    private ZipRecord create(RecordTask task) throws IOException {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) deflater = new Deflater(compressionLevel, true);
+
+        try {
+            return task.create(deflater);
+        } finally {
+            deflaters.offer(deflater);
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Future<ZipRecord> next = pending.poll();
+
+        try {
+            writer.write(next.get());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a record");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+
+            if (cause instanceof IOException)      throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error)            throw (Error) cause;
+
+            throw new IOException("failed to create a record", cause);
+        }
+    }
+
+    public interface RecordTask {
+        ZipRecord create(Deflater deflater) throws IOException;
+    }
+
+}
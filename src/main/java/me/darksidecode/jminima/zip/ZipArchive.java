@@ -0,0 +1,258 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.zip;
+
+import lombok.NonNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.jar.JarEntry;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/*
+ * A zip archive read straight from a buffer (a memory-mapped file, a slice of another archive,
+ * or just bytes in memory), using an index built from a single pass over the central directory.
+ * Entries data is read without any I/O calls, and class bytes are inflated into reused buffers.
+ * Signatures of signed jars are not verified.
+ */
+public class ZipArchive implements Closeable {
+
+    private final Map<String, ArchiveEntry> entries;
+
+    private final Queue<Inflation> inflations = new ConcurrentLinkedQueue<>();
+
+    private volatile ByteBuffer archive; // null once closed
+
+    public ZipArchive(@NonNull ByteBuffer archive) throws ZipException {
+        this.archive = archive.slice(); // offsets are relative to the current position
+        this.entries = CentralDirectory.read(this.archive);
+    }
+
+    public static ZipArchive map(@NonNull File file) throws IOException {
+        // Only archives of up to 2 GB can be mapped. The mapping itself is released once garbage collected.
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new ZipException("archive is too large to be memory-mapped: " + file);
+
+            return new ZipArchive(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public Collection<ArchiveEntry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public Stream<JarEntry> stream() {
+        return entries.values().stream().map(JarEntry.class::cast);
+    }
+
+    public ArchiveEntry getEntry(@NonNull String name) {
+        return entries.get(name);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public InputStream getInputStream(@NonNull ZipEntry ze) throws IOException {
+        ArchiveEntry entry = resolve(ze);
+        InputStream stream = new ByteBufferInputStream(getRawData(entry));
+
+        if (entry.getMethod() == ZipEntry.STORED)
+            return stream;
+
+        Inflater inflater = new Inflater(true);
+
+        return new InflaterInputStream(stream, inflater) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    inflater.end();
+                    super.close();
+                }
+            }
+        };
+    }
+
+    public byte[] readEntry(@NonNull JarEntry jarEntry, byte[] buffer) throws IOException {
+        ArchiveEntry entry = resolve(jarEntry);
+
+        if (entry.getSize() > Integer.MAX_VALUE)
+            throw new ZipException("entry is too large to be read into memory: " + entry.getName());
+
+        int size = (int) entry.getSize();
+
+        if (buffer == null || buffer.length < size)
+            buffer = new byte[size];
+
+        ByteBuffer data = getRawData(entry);
+
+        if (entry.getMethod() == ZipEntry.STORED)
+            data.get(buffer, 0, size);
+        else {
+            Inflation inflation = inflations.poll();
+            if (inflation == null) inflation = new Inflation();
+
+            try {
+                inflation.inflate(data, buffer, size);
+            } catch (DataFormatException ex) {
+                throw new ZipException("invalid compressed data of entry "
+                        + entry.getName() + ": " + ex.getMessage());
+            } finally {
+                inflation.inflater.reset();
+                inflations.offer(inflation);
+            }
+        }
+
+        return buffer;
+    }
+
+    ByteBuffer getRawData(@NonNull ArchiveEntry entry) throws IOException {
+        ByteBuffer archive = this.archive;
+
+        if (archive == null)
+            throw new IllegalStateException("zip file closed");
+
+        if ((entry.getFlags() & CentralDirectory.FLAG_ENCRYPTED) != 0)
+            throw new ZipException("encrypted entries are not supported: " + entry.getName());
+
+        if (entry.getMethod() != ZipEntry.STORED && entry.getMethod() != ZipEntry.DEFLATED)
+            throw new ZipException("unsupported compression method "
+                    + entry.getMethod() + " of entry " + entry.getName());
+
+        ByteBuffer data = archive.duplicate();
+        data.position((int) CentralDirectory.dataOffset(archive, entry));
+        data.limit(data.position() + (int) entry.getCompressedSize());
+
+        return data.slice();
+    }
+
+    private ArchiveEntry resolve(ZipEntry ze) throws ZipException {
+        ArchiveEntry entry = entries.get(ze.getName());
+
+        if (entry == null)
+            throw new ZipException("no such entry: " + ze.getName());
+
+        return entry;
+    }
+
+    public ByteBuffer getStoredData(@NonNull JarEntry jarEntry) throws IOException {
+        // A read-only view of data of a stored (uncompressed) entry, e.g. a nested archive.
+        ArchiveEntry entry = resolve(jarEntry);
+
+        if (entry.getMethod() != ZipEntry.STORED)
+            throw new ZipException("entry is not stored: " + entry.getName());
+
+        return getRawData(entry).asReadOnlyBuffer();
+    }
+
+    @Override
+    public void close() {
+        archive = null;
+
+        Inflation inflation;
+        while ((inflation = inflations.poll()) != null)
+            inflation.inflater.end();
+    }
+
+    private static final class Inflation {
+        private final Inflater inflater = new Inflater(true);
+
+        private byte[] input = new byte[8192];
+
+        private void inflate(ByteBuffer data, byte[] output, int size) throws DataFormatException, ZipException {
+            if (input.length < data.remaining())
+                input = new byte[data.remaining()];
+
+            int inputLen = data.remaining();
+            data.get(input, 0, inputLen);
+            inflater.setInput(input, 0, inputLen);
+
+            int off = 0;
+
+            while (off < size) {
+                int n = inflater.inflate(output, off, size - off);
+
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+
+                off += n;
+            }
+
+            if (off != size)
+                throw new ZipException("inflated " + off + " bytes, expected " + size);
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        private ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+
+            if (!buf.hasRemaining())
+                return -1;
+
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buf.remaining()));
+            buf.position(buf.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+
+}
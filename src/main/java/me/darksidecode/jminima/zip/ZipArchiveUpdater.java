@@ -0,0 +1,219 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.zip;
+
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/*
+ * Updates an existing archive in place. New and replaced entries, followed by a new central directory,
+ * are appended after the end of the archive. Nothing already present in the file is overwritten, so the
+ * cost of an update depends on the size of the changes, not of the archive. Old data of replaced entries
+ * and the old central directory stay in the file, no longer referenced by the new central directory:
+ * update returns (an estimate of) how much of the file is such stale data, and compact removes it.
+ *
+ * Everything is forced to the storage device before the new end record is written, so the archive is only
+ * switched to the new central directory once it is complete. If an update fails, the file is truncated back
+ * to its original size. In case the process dies before that, the original size is recorded in a journal next
+ * to the archive ("<archive>.update") before anything is appended, and the archive is truncated back to it by
+ * recover, unless the update has been completed. Recovery happens on the next update, and when the archive is
+ * opened by OpenJarFilePhase or OpenClassSourcePhase. JarFiles (and mappings) that have indexed the archive
+ * before the update may stay open, and keep reading the old contents.
+ */
+@UtilityClass
+public class ZipArchiveUpdater {
+
+    private static final String JOURNAL_SUFFIX = ".update";
+
+    private static final int JOURNAL_MAGIC = 0x4A4D5555; // "JMUU"
+
+    private static final int JOURNAL_SIZE = 4 + 8; // magic, original size of the archive
+
+    public static long update(@NonNull Path archive, @NonNull Collection<ZipRecord> records) throws IOException {
+        // Returns the number of bytes of the archive (estimated) that are no longer referenced by it.
+        Map<String, ZipRecord> updates = new LinkedHashMap<>();
+
+        for (ZipRecord record : records)
+            if (updates.put(record.getName(), record) != null)
+                throw new ZipException("duplicate entry: " + record.getName());
+
+        recover(archive);
+
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            CentralDirectory.Location location = CentralDirectory.locate(channel);
+
+            if (location.size > Integer.MAX_VALUE)
+                throw new ZipException("central directory is too large: " + location.size);
+
+            ByteBuffer cen = CentralDirectory.read(channel, location.offset, (int) location.size);
+            long originalSize = channel.size();
+            long[] retainedSize = new long[1]; // of local records of entries that are not replaced
+            Path journal = journalOf(archive);
+
+            writeJournal(journal, originalSize);
+
+            try {
+                channel.position(originalSize);
+                ZipArchiveWriter writer = new ZipArchiveWriter(channel, originalSize);
+
+                CentralDirectory.forEachRecord(cen, location.count, (entry, centralRecord) -> {
+                    ZipRecord update = updates.remove(entry.getName());
+
+                    if (update != null)
+                        writer.write(update); // replace the existing entry, keeping its position in the directory
+                    else {
+                        writer.retain(entry.getName(), centralRecord);
+                        retainedSize[0] += localRecordSizeOf(entry);
+                    }
+                });
+
+                for (ZipRecord record : updates.values())
+                    writer.write(record); // add new entries
+
+                writer.finish();
+                channel.force(false);
+            } catch (Throwable t) {
+                channel.truncate(originalSize); // drop the partially appended update
+                channel.force(false);
+                Files.deleteIfExists(journal);
+                throw t;
+            }
+
+            Files.delete(journal);
+
+            // Everything appended is referenced by the new central directory.
+            return Math.max(0, originalSize - retainedSize[0]);
+        }
+    }
+
+    public static boolean recover(@NonNull Path archive) throws IOException {
+        // Truncates the archive back to its size before an update that has been interrupted (e.g. by a crash),
+        // unless the update has been completed. Returns true if the archive has been truncated.
+        Path journal = journalOf(archive);
+
+        if (!Files.exists(journal))
+            return false;
+
+        long originalSize = readJournal(journal); // -1 = not written completely, so nothing has been appended
+        boolean truncated = false;
+
+        if (originalSize != -1) {
+            try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                if (channel.size() > originalSize && !isUpdated(channel, originalSize)) {
+                    channel.truncate(originalSize);
+                    channel.force(false);
+                    truncated = true;
+                }
+            }
+        }
+
+        Files.delete(journal);
+        return truncated;
+    }
+
+    public static void compact(@NonNull Path archive, int threads) throws IOException {
+        // Rewrites the archive without data that is no longer referenced by it (see update), copying compressed
+        // data of entries as is. The archive is replaced atomically, so JarFiles and mappings opened before
+        // keep reading the old file. Only archives of up to 2 GB can be compacted (see ZipArchive#map).
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive");
+
+        recover(archive);
+
+        Path dir = archive.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile(dir, archive.getFileName().toString(), ".tmp");
+
+        try {
+            ZipArchive source = ZipArchive.map(archive.toFile());
+
+            try (ParallelZipArchiveWriter writer = new ParallelZipArchiveWriter(new ZipArchiveWriter(
+                    FileChannel.open(tempFile, StandardOpenOption.WRITE), 0), threads)) {
+                for (ArchiveEntry entry : source.entries())
+                    writer.submit(deflater -> ZipRecord.copyOf(source, entry));
+            } finally {
+                source.close();
+            }
+
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.force(false); // the end records, written after everything else has been forced
+            }
+
+            Files.move(tempFile, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static boolean isUpdated(FileChannel channel, long originalSize) throws IOException {
+        // The end record is written last, so the update is complete if it refers to an appended central directory.
+        try {
+            return CentralDirectory.locate(channel).offset >= originalSize;
+        } catch (ZipException ex) {
+            return false; // no valid end record at the end of the file
+        }
+    }
+
+    private static long localRecordSizeOf(ArchiveEntry entry) {
+        // Data descriptors and extra fields of local headers that differ from the central ones are not counted.
+        byte[] extra = entry.getExtra();
+
+        return CentralDirectory.LOC_HEADER_SIZE + entry.getName().getBytes(StandardCharsets.UTF_8).length
+                + (extra != null ? extra.length : 0) + entry.getCompressedSize();
+    }
+
+    static Path journalOf(Path archive) {
+        return archive.resolveSibling(archive.getFileName() + JOURNAL_SUFFIX);
+    }
+
+    static void writeJournal(Path journal, long originalSize) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(JOURNAL_SIZE).putInt(JOURNAL_MAGIC).putLong(originalSize);
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+
+            channel.force(false); // before anything is appended to the archive
+        }
+    }
+
+    private static long readJournal(Path journal) throws IOException {
+        byte[] bytes = Files.readAllBytes(journal);
+
+        if (bytes.length != JOURNAL_SIZE)
+            return -1;
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        return buffer.getInt() == JOURNAL_MAGIC ? buffer.getLong() : -1;
+    }
+
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.zip;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import me.darksidecode.jminima.util.EntryContent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import static me.darksidecode.jminima.zip.CentralDirectory.*;
+
+/*
+ * Writes records to an archive. Checksums of contents of records (see ZipRecord#store) are computed while
+ * the contents are transferred. The local header is then patched if the channel is seekable; otherwise,
+ * the checksum is computed in advance, so contents are read twice. Either way, a content that does not
+ * match its record (e.g. a file modified while being saved) fails the write.
+ */
+public class ZipArchiveWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int VERSION_STORED   = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int VERSION_ZIP64    = 45;
+
+    private final WritableByteChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final List<CentralRecord> centralRecords = new ArrayList<>();
+
+    private final Set<String> names = new HashSet<>();
+
+    private long offset;
+
+    private boolean finished;
+
+    private boolean forceBeforeEnd; // force everything to the device before the end records are written
+
+    public ZipArchiveWriter(@NonNull WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    ZipArchiveWriter(@NonNull FileChannel channel, long offset) {
+        // The channel is expected to be positioned at the given offset of an existing archive,
+        // which is only switched to the new central directory once its end records are written.
+        this.channel = channel;
+        this.offset = offset;
+        forceBeforeEnd = true;
+    }
+
+    public void write(@NonNull ZipRecord record) throws IOException {
+        if (finished)
+            throw new IllegalStateException("archive has already been finished");
+
+        if (!names.add(record.getName()))
+            throw new ZipException("duplicate entry: " + record.getName());
+
+        byte[] name = record.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] extra = record.getExtra();
+        boolean zip64 = record.getSize() >= ZIP64_MAGIC || record.getCompressedSize() >= ZIP64_MAGIC;
+        int flags = (record.getFlags() & ~(FLAG_ENCRYPTED | FLAG_DATA_DESCRIPTOR)) | FLAG_UTF8;
+        int version = zip64 ? VERSION_ZIP64
+                : record.getMethod() == ZipEntry.STORED ? VERSION_STORED : VERSION_DEFLATED;
+        long localOffset = offset;
+        long crc = record.getCrc();
+        long crcPosition = -1; // position of the checksum in the local header, to be patched once known
+
+        if (crc == -1) {
+            if (channel instanceof SeekableByteChannel) {
+                flush();
+                crcPosition = ((SeekableByteChannel) channel).position() + 14;
+                crc = 0;
+            } else
+                crc = crcOf(record.getContent());
+        }
+
+        reserve(LOC_HEADER_SIZE);
+        buffer.putInt(LOC_SIG);
+        buffer.putShort((short) version);
+        buffer.putShort((short) flags);
+        buffer.putShort((short) record.getMethod());
+        buffer.putInt(record.getDosTime());
+        buffer.putInt((int) crc);
+        buffer.putInt((int) (zip64 ? ZIP64_MAGIC : record.getCompressedSize()));
+        buffer.putInt((int) (zip64 ? ZIP64_MAGIC : record.getSize()));
+        buffer.putShort((short) name.length);
+        buffer.putShort((short) (extra.length + (zip64 ? 20 : 0)));
+        put(name);
+
+        if (zip64) {
+            reserve(20);
+            buffer.putShort((short) ZIP64_EXTRA_ID);
+            buffer.putShort((short) 16);
+            buffer.putLong(record.getSize());
+            buffer.putLong(record.getCompressedSize());
+        }
+
+        put(extra);
+
+        if (record.getData() != null)
+            put(record.getData().duplicate());
+        else {
+            long transferredCrc = transfer(record);
+
+            if (crcPosition != -1)
+                patchCrc(crcPosition, transferredCrc);
+            else if (transferredCrc != crc)
+                throw new ZipException("content of entry " + record.getName() + " has changed while being saved");
+
+            crc = transferredCrc;
+        }
+
+        centralRecords.add(new CentralRecord(name, flags, version, record, crc, localOffset));
+    }
+
+    void retain(@NonNull String name, @NonNull ByteBuffer centralRecord) {
+        // Keeps an entry that is already present in the archive, along with its original central record.
+        if (finished)
+            throw new IllegalStateException("archive has already been finished");
+
+        names.add(name);
+        centralRecords.add(new CentralRecord(centralRecord));
+    }
+
+    public void finish() throws IOException {
+        if (finished)
+            return;
+
+        finished = true;
+        long cenOffset = offset;
+
+        for (CentralRecord record : centralRecords)
+            writeCentralRecord(record);
+
+        long cenSize = offset - cenOffset;
+        long count = centralRecords.size();
+
+        if (forceBeforeEnd) {
+            flush();
+            ((FileChannel) channel).force(false);
+        }
+
+        if (count >= 0xFFFF || cenOffset >= ZIP64_MAGIC || cenSize >= ZIP64_MAGIC) {
+            long zip64EndOffset = offset;
+
+            reserve(ZIP64_END_HEADER_SIZE + ZIP64_LOC_HEADER_SIZE);
+            buffer.putInt(ZIP64_END_SIG);
+            buffer.putLong(ZIP64_END_HEADER_SIZE - 12); // size of the remaining record
+            buffer.putShort((short) VERSION_ZIP64);
+            buffer.putShort((short) VERSION_ZIP64);
+            buffer.putInt(0);
+            buffer.putInt(0);
+            buffer.putLong(count);
+            buffer.putLong(count);
+            buffer.putLong(cenSize);
+            buffer.putLong(cenOffset);
+
+            buffer.putInt(ZIP64_LOC_SIG);
+            buffer.putInt(0);
+            buffer.putLong(zip64EndOffset);
+            buffer.putInt(1);
+        }
+
+        reserve(END_HEADER_SIZE);
+        buffer.putInt(END_SIG);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) Math.min(count, 0xFFFF));
+        buffer.putShort((short) Math.min(count, 0xFFFF));
+        buffer.putInt((int) Math.min(cenSize, ZIP64_MAGIC));
+        buffer.putInt((int) Math.min(cenOffset, ZIP64_MAGIC));
+        buffer.putShort((short) 0);
+
+        flush();
+        centralRecords.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeCentralRecord(CentralRecord record) throws IOException {
+        if (record.raw != null) {
+            put(record.raw.duplicate());
+            return;
+        }
+
+        boolean sizeZip64 = record.size >= ZIP64_MAGIC;
+        boolean compressedSizeZip64 = record.compressedSize >= ZIP64_MAGIC;
+        boolean offsetZip64 = record.offset >= ZIP64_MAGIC;
+        int zip64Len = (sizeZip64 ? 8 : 0) + (compressedSizeZip64 ? 8 : 0) + (offsetZip64 ? 8 : 0);
+        int version = zip64Len > 0 ? VERSION_ZIP64 : record.version;
+
+        reserve(CEN_HEADER_SIZE);
+        buffer.putInt(CEN_SIG);
+        buffer.putShort((short) version); // version made by
+        buffer.putShort((short) version); // version needed to extract
+        buffer.putShort((short) record.flags);
+        buffer.putShort((short) record.method);
+        buffer.putInt(record.dosTime);
+        buffer.putInt((int) record.crc);
+        buffer.putInt((int) Math.min(record.compressedSize, ZIP64_MAGIC));
+        buffer.putInt((int) Math.min(record.size, ZIP64_MAGIC));
+        buffer.putShort((short) record.name.length);
+        buffer.putShort((short) (record.extra.length + (zip64Len > 0 ? zip64Len + 4 : 0)));
+        buffer.putShort((short) record.comment.length);
+        buffer.putShort((short) 0); // disk number start
+        buffer.putShort((short) 0); // internal file attributes
+        buffer.putInt(0);           // external file attributes
+        buffer.putInt((int) Math.min(record.offset, ZIP64_MAGIC));
+        put(record.name);
+
+        if (zip64Len > 0) {
+            reserve(4 + zip64Len);
+            buffer.putShort((short) ZIP64_EXTRA_ID);
+            buffer.putShort((short) zip64Len);
+            if (sizeZip64)           buffer.putLong(record.size);
+            if (compressedSizeZip64) buffer.putLong(record.compressedSize);
+            if (offsetZip64)         buffer.putLong(record.offset);
+        }
+
+        put(record.extra);
+        put(record.comment);
+    }
+
+    private void reserve(int bytes) throws IOException {
+        // Makes sure that the given number of bytes can be put in the buffer right away.
+        if (buffer.remaining() < bytes)
+            flush();
+
+        offset += bytes;
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        put(ByteBuffer.wrap(bytes));
+    }
+
+    private void put(ByteBuffer data) throws IOException {
+        offset += data.remaining();
+
+        if (data.remaining() <= buffer.remaining())
+            buffer.put(data);
+        else {
+            // Large chunks (e.g. mapped data of copied entries) bypass the buffer.
+            flush();
+
+            while (data.hasRemaining())
+                channel.write(data);
+        }
+    }
+
+    private long transfer(ZipRecord record) throws IOException {
+        // Contents (e.g. files) are transferred right to the channel, bypassing the buffer. Returns the checksum.
+        flush();
+        CRC32 crc = new CRC32();
+        long transferred = record.getContent().transferTo(new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                ByteBuffer written = src.duplicate();
+                int n = channel.write(src);
+                written.limit(written.position() + n);
+                crc.update(written);
+
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() {
+                // The channel is closed along with the writer.
+            }
+        });
+
+        offset += transferred;
+
+        if (transferred != record.getCompressedSize())
+            throw new ZipException("content of entry " + record.getName() + " has changed while being saved");
+
+        return crc.getValue();
+    }
+
+    private void patchCrc(long crcPosition, long crc) throws IOException {
+        SeekableByteChannel seekable = (SeekableByteChannel) channel;
+        long position = seekable.position();
+        ByteBuffer crcBuffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, (int) crc);
+
+        seekable.position(crcPosition);
+
+        while (crcBuffer.hasRemaining())
+            seekable.write(crcBuffer);
+
+        seekable.position(position);
+    }
+
+    private static long crcOf(EntryContent content) throws IOException {
+        CRC32 crc = new CRC32();
+        content.transferTo(new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                int len = src.remaining();
+                crc.update(src);
+                return len;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        return crc.getValue();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+
+        buffer.clear();
+    }
+
+    @RequiredArgsConstructor
+    private static final class CentralRecord {
+        private final byte[] name;
+        private final int flags, version, method, dosTime;
+        private final long crc, size, compressedSize;
+        private final byte[] extra, comment;
+        private final long offset;
+        private final ByteBuffer raw; // verbatim record of a retained entry
+
+        private CentralRecord(ByteBuffer raw) {
+            this(null, 0, 0, 0, 0, 0, 0, 0, null, null, 0, raw);
+        }
+
+        private CentralRecord(byte[] name, int flags, int version, ZipRecord record, long crc, long offset) {
+            this(name, flags, version, record.getMethod(), record.getDosTime(), crc,
+                    record.getSize(), record.getCompressedSize(), record.getExtra(), record.getComment(), offset, null);
+        }
+    }
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.zip;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import me.darksidecode.jminima.util.EntryContent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+// A complete entry record, with its data already compressed, ready to be appended to an archive.
+@Getter
+@RequiredArgsConstructor (access = AccessLevel.PRIVATE)
+public class ZipRecord {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String name;
+
+    private final int flags;
+
+    private final int method;
+
+    private final int dosTime;
+
+    private final long crc; // -1 = computed once the content is written
+
+    private final long size;
+
+    private final long compressedSize;
+
+    private final byte[] extra;
+
+    private final byte[] comment;
+
+    private final ByteBuffer data; // null = transfer the content
+
+    private final EntryContent content; // null = write the data
+
+    public static ZipRecord copyOf(@NonNull ZipArchive source, @NonNull ArchiveEntry entry) throws IOException {
+        return new ZipRecord(
+                entry.getName(),
+                entry.getFlags(),
+                entry.getMethod(),
+                entry.getDosTime(),
+                entry.getCrc(),
+                entry.getSize(),
+                entry.getCompressedSize(),
+                CentralDirectory.stripZip64Extra(entry.getExtra()),
+                commentOf(entry),
+                source.getRawData(entry),
+                null
+        );
+    }
+
+    public static ZipRecord deflate(@NonNull JarEntry template, long defaultTime,
+                                    @NonNull byte[] bytes, @NonNull Deflater deflater) {
+        long time = template.getTime() != -1 ? template.getTime() : defaultTime;
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        if (bytes.length == 0)
+            // Nothing to compress (e.g. a directory entry).
+            return new ZipRecord(template.getName(), 0, ZipEntry.STORED,
+                    CentralDirectory.javaToDosTime(time), crc.getValue(), 0, 0,
+                    CentralDirectory.stripZip64Extra(template.getExtra()),
+                    commentOf(template), ByteBuffer.allocate(0), null);
+
+        byte[] output = new byte[bytes.length + (bytes.length >> 8) + 64];
+        int len = 0;
+
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+
+        while (!deflater.finished()) {
+            if (len == output.length) {
+                byte[] grown = new byte[output.length * 2];
+                System.arraycopy(output, 0, grown, 0, len);
+                output = grown;
+            }
+
+            len += deflater.deflate(output, len, output.length - len);
+        }
+
+        return new ZipRecord(template.getName(), 0, ZipEntry.DEFLATED,
+                CentralDirectory.javaToDosTime(time), crc.getValue(), bytes.length, len,
+                CentralDirectory.stripZip64Extra(template.getExtra()),
+                commentOf(template), ByteBuffer.wrap(output, 0, len).slice(), null);
+    }
+
+    public static ZipRecord deflate(@NonNull JarEntry template, long defaultTime,
+                                    @NonNull EntryContent content, @NonNull Deflater deflater) throws IOException {
+        // Unlike contents, compressed data is kept in memory, but contents are read in chunks.
+        long time = template.getTime() != -1 ? template.getTime() : defaultTime;
+        CRC32 crc = new CRC32();
+        byte[] input = new byte[BUFFER_SIZE];
+        ByteBuffer inputBuffer = ByteBuffer.wrap(input);
+        byte[] output = new byte[BUFFER_SIZE];
+        long size = 0;
+        int len = 0;
+
+        deflater.reset();
+
+        try (ReadableByteChannel channel = content.open()) {
+            int n;
+
+            while ((n = channel.read(inputBuffer)) != -1) {
+                if (n == 0)
+                    continue;
+
+                crc.update(input, 0, n);
+                size += n;
+                deflater.setInput(input, 0, n);
+
+                while (!deflater.needsInput())
+                    len = deflateChunk(deflater, output = ensureCapacity(output, len), len);
+
+                inputBuffer.clear();
+            }
+        }
+
+        if (size == 0)
+            return new ZipRecord(template.getName(), 0, ZipEntry.STORED,
+                    CentralDirectory.javaToDosTime(time), crc.getValue(), 0, 0,
+                    CentralDirectory.stripZip64Extra(template.getExtra()),
+                    commentOf(template), ByteBuffer.allocate(0), null);
+
+        deflater.finish();
+
+        while (!deflater.finished())
+            len = deflateChunk(deflater, output = ensureCapacity(output, len), len);
+
+        return new ZipRecord(template.getName(), 0, ZipEntry.DEFLATED,
+                CentralDirectory.javaToDosTime(time), crc.getValue(), size, len,
+                CentralDirectory.stripZip64Extra(template.getExtra()),
+                commentOf(template), ByteBuffer.wrap(output, 0, len).slice(), null);
+    }
+
+    public static ZipRecord store(@NonNull JarEntry template, long defaultTime,
+                                  @NonNull EntryContent content) throws IOException {
+        // The content is transferred as is once written, and its checksum is computed then (see ZipArchiveWriter).
+        // Contents of unknown sizes are read in advance to compute their sizes (and checksums along the way).
+        long time = template.getTime() != -1 ? template.getTime() : defaultTime;
+        long knownSize = content.size();
+
+        if (knownSize != -1)
+            return new ZipRecord(template.getName(), 0, ZipEntry.STORED,
+                    CentralDirectory.javaToDosTime(time), -1, knownSize, knownSize,
+                    CentralDirectory.stripZip64Extra(template.getExtra()),
+                    commentOf(template), null, content);
+
+        CRC32 crc = new CRC32();
+        long size = content.transferTo(new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                int len = src.remaining();
+                crc.update(src);
+                return len;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        return new ZipRecord(template.getName(), 0, ZipEntry.STORED,
+                CentralDirectory.javaToDosTime(time), crc.getValue(), size, size,
+                CentralDirectory.stripZip64Extra(template.getExtra()),
+                commentOf(template), null, content);
+    }
+
+    public static ZipRecord compress(@NonNull JarEntry template, long defaultTime, @NonNull byte[] bytes,
+                                     @NonNull Deflater deflater, @NonNull CompressionPolicy policy) {
+        long start = System.nanoTime();
+        CompressionPolicy.Decision decision = policy.decide(template);
+
+        if (decision == CompressionPolicy.Decision.DEFLATE && policy.isIncompressible(bytes, bytes.length, deflater))
+            decision = CompressionPolicy.Decision.STORE_INCOMPRESSIBLE;
+
+        ZipRecord record = null;
+
+        if (decision == CompressionPolicy.Decision.DEFLATE) {
+            deflater.setLevel(policy.levelFor(bytes.length));
+            record = deflate(template, defaultTime, bytes, deflater);
+
+            if (record.compressedSize >= record.size && record.size > 0) {
+                decision = CompressionPolicy.Decision.STORE_INCOMPRESSIBLE;
+                record = null;
+            }
+        }
+
+        if (record == null) {
+            long time = template.getTime() != -1 ? template.getTime() : defaultTime;
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+
+            record = new ZipRecord(template.getName(), 0, ZipEntry.STORED,
+                    CentralDirectory.javaToDosTime(time), crc.getValue(), bytes.length, bytes.length,
+                    CentralDirectory.stripZip64Extra(template.getExtra()),
+                    commentOf(template), ByteBuffer.wrap(bytes), null);
+        }
+
+        policy.getStatistics().record(decision, record.size, record.compressedSize, System.nanoTime() - start);
+
+        return record;
+    }
+
+    public static ZipRecord compress(@NonNull JarEntry template, long defaultTime, @NonNull EntryContent content,
+                                     @NonNull Deflater deflater, @NonNull CompressionPolicy policy) throws IOException {
+        // Contents are not sampled, as they are read in chunks.
+        long start = System.nanoTime();
+        CompressionPolicy.Decision decision = policy.decide(template);
+        ZipRecord record = null;
+
+        if (decision == CompressionPolicy.Decision.DEFLATE) {
+            deflater.setLevel(policy.levelFor(content.size()));
+            record = deflate(template, defaultTime, content, deflater);
+
+            if (record.compressedSize >= record.size && record.size > 0) {
+                decision = CompressionPolicy.Decision.STORE_INCOMPRESSIBLE;
+                record = null;
+            }
+        }
+
+        if (record == null)
+            record = store(template, defaultTime, content);
+
+        policy.getStatistics().record(decision, record.size, record.compressedSize, System.nanoTime() - start);
+
+        return record;
+    }
+
+    private static byte[] ensureCapacity(byte[] output, int len) {
+        if (len < output.length)
+            return output;
+
+        byte[] grown = new byte[output.length * 2];
+        System.arraycopy(output, 0, grown, 0, len);
+
+        return grown;
+    }
+
+    private static int deflateChunk(Deflater deflater, byte[] output, int len) {
+        return len + deflater.deflate(output, len, output.length - len);
+    }
+
+    private static byte[] commentOf(ZipEntry entry) {
+        return entry.getComment() != null
+                ? entry.getComment().getBytes(StandardCharsets.UTF_8) : new byte[0];
+    }
+
+}
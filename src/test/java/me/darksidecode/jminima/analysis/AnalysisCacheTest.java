@@ -0,0 +1,93 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.analysis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalysisCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void returnsPutEntries() throws IOException {
+        AnalysisCache cache = new AnalysisCache(dir.toFile(), 100);
+
+        cache.put("a", new byte[] {1, 2, 3});
+
+        assertArrayEquals(new byte[] {1, 2, 3}, cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getStatistics().getHits());
+        assertEquals(1, cache.getStatistics().getMisses());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntries() throws IOException {
+        AnalysisCache cache = new AnalysisCache(dir.toFile(), 30);
+
+        cache.put("a", new byte[10]);
+        cache.put("b", new byte[10]);
+        cache.put("c", new byte[10]);
+        assertNotNull(cache.get("a")); // "b" is the least recently used one now
+
+        cache.put("d", new byte[10]);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertFalse(Files.exists(dir.resolve("b")));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(30, cache.getSize());
+    }
+
+    @Test
+    void skipsEntriesLargerThanTheCache() throws IOException {
+        AnalysisCache cache = new AnalysisCache(dir.toFile(), 10);
+
+        cache.put("a", new byte[5]);
+        cache.put("b", new byte[20]);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    void reloadsEntriesOnRestart() throws IOException {
+        new AnalysisCache(dir.toFile(), 100).put("a", new byte[] {42});
+
+        AnalysisCache cache = new AnalysisCache(dir.toFile(), 100);
+
+        assertEquals(1, cache.getEntries());
+        assertArrayEquals(new byte[] {42}, cache.get("a"));
+    }
+
+    @Test
+    void rejectsInvalidKeys() throws IOException {
+        AnalysisCache cache = new AnalysisCache(dir.toFile(), 100);
+
+        assertThrows(IllegalArgumentException.class, () -> cache.get("../a"));
+        assertThrows(IllegalArgumentException.class, () -> cache.put("a.tmp", new byte[1]));
+    }
+
+}
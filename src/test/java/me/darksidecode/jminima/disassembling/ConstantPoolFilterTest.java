@@ -0,0 +1,106 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.disassembling;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConstantPoolFilterTest {
+
+    @Test
+    void skipsSecondSlotsOfLongsAndDoubles() {
+        ConstantPoolFilter filter = new ConstantPoolFilter().anyOf("com/acme/Foo");
+
+        // Longs and Doubles take two slots each, so a scan that counted them as one would run past
+        // the constant pool (and conservatively accept the class).
+        assertFalse(accepts(filter, classBytes("p/C", 20, "unrelated")));
+        assertTrue(accepts(filter, classBytes("p/C", 20, "com/acme/Foo")));
+    }
+
+    @Test
+    void doesNotMatchPartialConstants() {
+        ConstantPoolFilter filter = new ConstantPoolFilter().anyOf("com/acme/Foo");
+
+        assertFalse(accepts(filter, classBytes("p/C", 1, "com/acme/FooBar")));
+        assertFalse(accepts(filter, classBytes("p/C", 1, "com/acme/Fo")));
+    }
+
+    @Test
+    void matchesAllConstantsOfAnyGroup() {
+        ConstantPoolFilter filter = new ConstantPoolFilter().allOf("com/acme/Foo", "bar").anyOf("baz");
+
+        assertTrue(accepts(filter, classBytes("p/C", 2, "com/acme/Foo", "bar")));
+        assertTrue(accepts(filter, classBytes("p/C", 2, "baz")));
+        assertFalse(accepts(filter, classBytes("p/C", 2, "com/acme/Foo")));
+        assertFalse(accepts(filter, classBytes("p/C", 2, "bar")));
+    }
+
+    @Test
+    void matchesConstantsInModifiedUtf8() {
+        ConstantPoolFilter filter = new ConstantPoolFilter().anyOf("caf\u00e9\u0000");
+
+        assertTrue(accepts(filter, classBytes("p/C", 1, "caf\u00e9\u0000")));
+        assertFalse(accepts(filter, classBytes("p/C", 1, "caf\u00e9")));
+    }
+
+    @Test
+    void acceptsClassesThatCannotBeScanned() {
+        ConstantPoolFilter filter = new ConstantPoolFilter().anyOf("com/acme/Foo");
+        byte[] bytes = classBytes("p/C", 20, "unrelated");
+
+        assertTrue(filter.accepts(bytes, bytes.length / 2)); // truncated
+        assertTrue(filter.accepts(new byte[] { 1, 2, 3 }, 3));
+        assertTrue(accepts(new ConstantPoolFilter(), bytes)); // no groups
+    }
+
+    @Test
+    void scansOnlyGivenLength() {
+        ConstantPoolFilter filter = new ConstantPoolFilter().anyOf("com/acme/Foo");
+        byte[] bytes = classBytes("p/C", 20, "unrelated");
+        byte[] buffer = Arrays.copyOf(bytes, bytes.length + 100); // e.g. a reused read buffer
+
+        assertFalse(filter.accepts(buffer, bytes.length));
+    }
+
+    @Test
+    void rejectsEmptyGroups() {
+        assertThrows(IllegalArgumentException.class, () -> new ConstantPoolFilter().allOf());
+    }
+
+    private static boolean accepts(ConstantPoolFilter filter, byte[] bytes) {
+        return filter.accepts(bytes, bytes.length);
+    }
+
+    private static byte[] classBytes(String name, int wideConstants, String... utf8Constants) {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+
+        for (int i = 0; i < wideConstants; i++)
+            writer.newConst(i % 2 == 0 ? (Object) (long) i : (Object) (double) i);
+
+        for (String constant : utf8Constants)
+            writer.newUTF8(constant);
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.disassembling;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.jar.JarEntry;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntryFilterTest {
+
+    @Test
+    void singleStarDoesNotCrossDirectories() {
+        Pattern glob = EntryFilter.compileGlob("com/acme/*.class");
+
+        assertTrue(glob.matcher("com/acme/A.class").matches());
+        assertTrue(glob.matcher("com/acme/.class").matches());
+        assertFalse(glob.matcher("com/acme/impl/A.class").matches());
+        assertFalse(glob.matcher("com/acme/A.class/").matches());
+    }
+
+    @Test
+    void doubleStarCrossesDirectories() {
+        Pattern glob = EntryFilter.compileGlob("com/acme/**");
+
+        assertTrue(glob.matcher("com/acme/A.class").matches());
+        assertTrue(glob.matcher("com/acme/impl/deep/A.class").matches());
+        assertFalse(glob.matcher("com/acmex/A.class").matches());
+        assertFalse(glob.matcher("org/com/acme/A.class").matches());
+
+        Pattern nested = EntryFilter.compileGlob("**/internal/*");
+
+        assertTrue(nested.matcher("com/acme/internal/A.class").matches());
+        assertFalse(nested.matcher("com/acme/internal/impl/A.class").matches());
+    }
+
+    @Test
+    void questionMarkMatchesOneCharacterButNotSlash() {
+        Pattern glob = EntryFilter.compileGlob("p/C?.class");
+
+        assertTrue(glob.matcher("p/C1.class").matches());
+        assertFalse(glob.matcher("p/C12.class").matches());
+        assertFalse(glob.matcher("p/C.class").matches());
+        assertFalse(EntryFilter.compileGlob("p?C.class").matcher("p/C.class").matches());
+    }
+
+    @Test
+    void otherCharactersAreLiteral() {
+        Pattern glob = EntryFilter.compileGlob("p/Outer$Inner.class");
+
+        assertTrue(glob.matcher("p/Outer$Inner.class").matches());
+        assertFalse(glob.matcher("p/Outer$InnerXclass").matches());
+        assertTrue(EntryFilter.compileGlob("a+(b)[c]").matcher("a+(b)[c]").matches());
+    }
+
+    @Test
+    void excludesWinOverIncludes() {
+        EntryFilter filter = new EntryFilter().include("com/acme/**").exclude("com/acme/generated/**");
+
+        assertTrue(filter.accepts(new JarEntry("com/acme/A.class")));
+        assertFalse(filter.accepts(new JarEntry("com/acme/generated/B.class")));
+        assertFalse(filter.accepts(new JarEntry("org/other/C.class")));
+        assertTrue(new EntryFilter().accepts(new JarEntry("anything.class")));
+    }
+
+    @Test
+    void skipsOnlyEntriesKnownToBeTooLarge() {
+        EntryFilter filter = new EntryFilter().maxSize(100);
+        JarEntry small = new JarEntry("Small.class");
+        small.setSize(100);
+        JarEntry large = new JarEntry("Large.class");
+        large.setSize(101);
+
+        assertTrue(filter.accepts(small));
+        assertFalse(filter.accepts(large));
+        assertTrue(filter.accepts(new JarEntry("Unknown.class")));
+        assertThrows(IllegalArgumentException.class, () -> filter.maxSize(-1));
+    }
+
+    @Test
+    void appliesPredicates() {
+        EntryFilter filter = new EntryFilter().matching(entry -> !entry.getName().startsWith("skip/"));
+
+        assertTrue(filter.accepts(new JarEntry("keep/A.class")));
+        assertFalse(filter.accepts(new JarEntry("skip/A.class")));
+        assertNull(filter.getConfiguration()); // predicates cannot be described
+        assertNotNull(new EntryFilter().include("**").getConfiguration());
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.phase.basic;
+
+import me.darksidecode.jminima.phase.EmittedValue;
+import me.darksidecode.jminima.source.ArchiveClassSource;
+import me.darksidecode.jminima.util.EntryContent;
+import me.darksidecode.jminima.util.JarFileData;
+import me.darksidecode.jminima.zip.ZipArchive;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SaveJarToMemoryPhaseTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void savesJarRoundTrip() throws IOException {
+        File input = createJar();
+
+        try (ArchiveClassSource source = new ArchiveClassSource(input)) {
+            JarFileData data = dataOf(source);
+            ClassNode modified = data.getClasses().getByName("p/B");
+            modified.fields.add(new FieldNode(Opcodes.ACC_PRIVATE, "added", "I", null, null));
+            data.getClasses().setModified(data.getClasses().idOf(modified), true);
+
+            Map<JarEntry, EntryContent> injected = new HashMap<>();
+            injected.put(new JarEntry("injected.txt"), EntryContent.of(bytesOf("injected")));
+            data.setInjectedEntries(injected);
+
+            // A tiny initial capacity makes the buffer grow several times.
+            ZipArchive saved = new ZipArchive(save(data, new SaveJarToMemoryPhase()
+                    .rawCopyUnmodified(true).initialCapacity(16)));
+            List<String> names = new ArrayList<>();
+            saved.stream().forEach(entry -> names.add(entry.getName()));
+
+            assertEquals(Arrays.asList("injected.txt", "p/A.class", "res.txt", "p/B.class"), names);
+            assertEquals("resource", new String(read(saved, "res.txt"), StandardCharsets.UTF_8));
+            assertEquals("injected", new String(read(saved, "injected.txt"), StandardCharsets.UTF_8));
+            assertArrayEquals(classBytes("p/A"), read(saved, "p/A.class"));
+
+            ClassNode savedClass = new ClassNode();
+            new ClassReader(read(saved, "p/B.class")).accept(savedClass, 0);
+            assertEquals("added", savedClass.fields.get(0).name);
+        }
+    }
+
+    @Test
+    void savesSameEntriesWithAnyNumberOfThreads() throws IOException {
+        File input = createJar();
+
+        try (ArchiveClassSource source = new ArchiveClassSource(input)) {
+            ByteBuffer single = save(dataOf(source), new SaveJarToMemoryPhase().rawCopyUnmodified(true).threads(1));
+            ByteBuffer parallel = save(dataOf(source), new SaveJarToMemoryPhase().rawCopyUnmodified(true).threads(4));
+
+            assertEquals(single, parallel);
+        }
+    }
+
+    @Test
+    void rejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new SaveJarToMemoryPhase().threads(0));
+        assertThrows(IllegalArgumentException.class, () -> new SaveJarToMemoryPhase().initialCapacity(0));
+    }
+
+    private static ByteBuffer save(JarFileData data, SaveJarToMemoryPhase phase) {
+        EmittedValue<? extends ByteBuffer> result = phase.executeNoExcept(data, null);
+
+        assertNull(result.getError());
+        assertNotNull(result.getValue());
+
+        return result.getValue();
+    }
+
+    private static JarFileData dataOf(ArchiveClassSource source) {
+        Map<ClassNode, Boolean> classes = new LinkedHashMap<>();
+
+        for (String name : new String[] { "p/A", "p/B" }) {
+            ClassNode cls = new ClassNode();
+            new ClassReader(classBytes(name)).accept(cls, 0);
+            classes.put(cls, false);
+        }
+
+        return new JarFileData(null, classes, null, source);
+    }
+
+    private File createJar() throws IOException {
+        File jar = dir.resolve("input.jar").toFile();
+
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()))) {
+            out.putNextEntry(new JarEntry("p/A.class"));
+            out.write(classBytes("p/A"));
+            out.putNextEntry(new JarEntry("res.txt"));
+            out.write(bytesOf("resource"));
+            out.putNextEntry(new JarEntry("p/B.class"));
+            out.write(classBytes("p/B"));
+        }
+
+        return jar;
+    }
+
+    private static byte[] read(ZipArchive archive, String name) throws IOException {
+        return IOUtils.toByteArray(archive.getInputStream(archive.getEntry(name)));
+    }
+
+    private static byte[] classBytes(String name) {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        writer.visitEnd();
+
+        return writer.toByteArray();
+    }
+
+    private static byte[] bytesOf(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.phase.basic;
+
+import me.darksidecode.jminima.disassembling.SimpleJavaDisassembler;
+import me.darksidecode.jminima.phase.EmittedValue;
+import me.darksidecode.jminima.source.ArchiveClassSource;
+import me.darksidecode.jminima.walking.ClassWalker;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransformJarPhaseTest {
+
+    private static final int CLASSES = 100;
+
+    private static final int THREADS = 2;
+
+    private static final int MAX_IN_PROGRESS = THREADS * 4; // see ParallelZipArchiveWriter
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void transformsClassesAndKeepsEntryOrder() throws IOException {
+        File input = createJar();
+        File output = dir.resolve("output.jar").toFile();
+        EmittedValue<? extends Void> result;
+
+        try (ArchiveClassSource source = new ArchiveClassSource(input)) {
+            result = new TransformJarPhase(SimpleJavaDisassembler.class, MarkingWalker.class, output, false)
+                    .threads(THREADS).executeNoExcept(source, null);
+        }
+
+        assertNull(result);
+
+        try (JarFile jar = new JarFile(output)) {
+            List<String> names = new ArrayList<>();
+
+            for (JarEntry entry : Collections.list(jar.entries()))
+                names.add(entry.getName());
+
+            assertEquals(entryNames(), names);
+            assertEquals("resource", contentOf(jar, "res.txt"));
+
+            ClassNode cls = new ClassNode();
+            new ClassReader(IOUtils.toByteArray(jar.getInputStream(jar.getEntry("p/C42.class")))).accept(cls, 0);
+            assertEquals(MarkingWalker.FIELD_NAME, cls.fields.get(0).name);
+        }
+    }
+
+    @Test
+    void holdsBoundedWindowOfClasses() throws Exception {
+        File input = createJar();
+        File output = dir.resolve("output.jar").toFile();
+        BlockingWalker.reset();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try (ArchiveClassSource source = new ArchiveClassSource(input)) {
+            Future<EmittedValue<? extends Void>> result = executor.submit(() -> new TransformJarPhase(
+                    SimpleJavaDisassembler.class, BlockingWalker.class, output, false)
+                    .threads(THREADS).executeNoExcept(source, null));
+
+            // While the first class is stuck, no more than the window of classes can be read after it.
+            assertTrue(BlockingWalker.firstStarted.await(10, TimeUnit.SECONDS));
+            Thread.sleep(300);
+            int walkedWhileBlocked = BlockingWalker.walked.get();
+            BlockingWalker.release.countDown();
+
+            assertNull(result.get(30, TimeUnit.SECONDS));
+            assertTrue(walkedWhileBlocked <= MAX_IN_PROGRESS, "walked " + walkedWhileBlocked);
+            assertEquals(CLASSES, BlockingWalker.walked.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void rejectsNonPositiveThreads() {
+        TransformJarPhase phase = new TransformJarPhase(SimpleJavaDisassembler.class,
+                MarkingWalker.class, dir.resolve("output.jar").toFile(), false);
+
+        assertThrows(IllegalArgumentException.class, () -> phase.threads(0));
+    }
+
+    private File createJar() throws IOException {
+        File jar = dir.resolve("input.jar").toFile();
+
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()))) {
+            for (int i = 0; i < CLASSES; i++) {
+                out.putNextEntry(new JarEntry("p/C" + i + ".class"));
+                out.write(classBytes("p/C" + i));
+                out.closeEntry();
+
+                if (i == CLASSES / 2) {
+                    out.putNextEntry(new JarEntry("res.txt"));
+                    out.write("resource".getBytes(StandardCharsets.UTF_8));
+                    out.closeEntry();
+                }
+            }
+        }
+
+        return jar;
+    }
+
+    private static List<String> entryNames() {
+        List<String> names = new ArrayList<>();
+
+        for (int i = 0; i < CLASSES; i++) {
+            names.add("p/C" + i + ".class");
+
+            if (i == CLASSES / 2)
+                names.add("res.txt");
+        }
+
+        return names;
+    }
+
+    private static byte[] classBytes(String name) {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        writer.visitEnd();
+
+        return writer.toByteArray();
+    }
+
+    private static String contentOf(JarFile jar, String name) throws IOException {
+        ZipEntry entry = jar.getEntry(name);
+
+        try (InputStream stream = jar.getInputStream(entry)) {
+            return new String(IOUtils.toByteArray(stream), StandardCharsets.UTF_8);
+        }
+    }
+
+    public static class MarkingWalker implements ClassWalker {
+        static final String FIELD_NAME = "transformed";
+
+        private final ClassNode cls;
+
+        public MarkingWalker(ClassNode cls) {
+            this.cls = cls;
+        }
+
+        @Override
+        public boolean hasModifiedAnything() {
+            return true;
+        }
+
+        @Override
+        public void visitClass() {
+            cls.fields.add(new FieldNode(ACC_PRIVATE, FIELD_NAME, "I", null, null));
+        }
+
+        @Override
+        public void visitField(FieldNode fld) {
+        }
+
+        @Override
+        public void visitMethod(MethodNode mtd) {
+        }
+    }
+
+    public static class BlockingWalker implements ClassWalker {
+        static AtomicInteger walked;
+
+        static CountDownLatch firstStarted;
+
+        static CountDownLatch release;
+
+        private final ClassNode cls;
+
+        public BlockingWalker(ClassNode cls) {
+            this.cls = cls;
+        }
+
+        static void reset() {
+            walked = new AtomicInteger();
+            firstStarted = new CountDownLatch(1);
+            release = new CountDownLatch(1);
+        }
+
+        @Override
+        public boolean hasModifiedAnything() {
+            return false;
+        }
+
+        @Override
+        public void visitClass() {
+            walked.incrementAndGet();
+
+            if (cls.name.equals("p/C0")) {
+                firstStarted.countDown();
+
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void visitField(FieldNode fld) {
+        }
+
+        @Override
+        public void visitMethod(MethodNode mtd) {
+        }
+    }
+
+}
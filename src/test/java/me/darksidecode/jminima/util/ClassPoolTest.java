@@ -0,0 +1,183 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.util;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassPoolTest {
+
+    @Test
+    void forkKeepsIdsAndFlags() {
+        ClassPool pool = new ClassPool();
+        int a = pool.add(classNode("p/A"));
+        int b = pool.add(classNode("p/B"));
+        pool.setModified(b, true);
+
+        ClassPool fork = pool.fork();
+
+        assertSame(pool.get(a), fork.get(a));
+        assertSame(pool.get(b), fork.getByName("p/B"));
+        assertFalse(fork.isModified(a));
+        assertTrue(fork.isModified(b));
+        assertTrue(pool.isShared(a));
+        assertTrue(fork.isShared(b));
+    }
+
+    @Test
+    void copiesSharedClassesOnWrite() {
+        ClassPool pool = new ClassPool();
+        ClassNode original = classNode("p/A");
+        int id = pool.add(original);
+        ClassPool fork = pool.fork();
+
+        ClassNode writable = fork.getWritable(id);
+        writable.fields.add(new FieldNode(Opcodes.ACC_PRIVATE, "added", "I", null, null));
+        fork.setModified(id, true);
+
+        assertNotSame(original, writable);
+        assertSame(writable, fork.get(id));
+        assertSame(writable, fork.getByName("p/A"));
+        assertFalse(fork.isShared(id));
+        assertSame(writable, fork.getWritable(id)); // private already
+
+        // The base pool still has the original class, untouched.
+        assertSame(original, pool.get(id));
+        assertSame(original, pool.getByName("p/A"));
+        assertTrue(original.fields.isEmpty());
+        assertFalse(pool.isModified(id));
+    }
+
+    @Test
+    void doesNotCopyPrivateClasses() {
+        ClassPool pool = new ClassPool();
+        ClassNode cls = classNode("p/A");
+        int id = pool.add(cls);
+
+        assertSame(cls, pool.getWritable(id));
+
+        ClassPool fork = pool.fork();
+        ClassNode added = classNode("p/B");
+        int addedId = fork.add(added);
+
+        assertSame(added, fork.getWritable(addedId));
+        assertNull(pool.get(addedId));
+    }
+
+    @Test
+    void isolatesAdditionsAndRemovals() {
+        ClassPool pool = new ClassPool();
+        ClassNode a = classNode("p/A");
+        pool.add(a);
+        ClassPool fork = pool.fork();
+
+        fork.remove(a);
+        fork.add(classNode("p/B"));
+
+        assertEquals(1, pool.size());
+        assertSame(a, pool.getByName("p/A"));
+        assertNull(pool.getByName("p/B"));
+        assertEquals(1, fork.size());
+        assertNull(fork.getByName("p/A"));
+    }
+
+    @Test
+    void findsRenamedCopiesByNewNames() {
+        ClassPool pool = new ClassPool();
+        int id = pool.add(classNode("p/A"));
+        ClassPool fork = pool.fork();
+
+        ClassNode renamed = ClassPool.copyOf(fork.get(id));
+        renamed.name = "p/Renamed";
+        fork.set(id, renamed);
+
+        assertSame(renamed, fork.getByName("p/Renamed"));
+        assertNull(fork.getByName("p/A"));
+        assertNotNull(pool.getByName("p/A"));
+        assertNull(pool.getByName("p/Renamed"));
+    }
+
+    @Test
+    void forksOfForksAreIsolated() {
+        ClassPool pool = new ClassPool();
+        ClassNode original = classNode("p/A");
+        int id = pool.add(original);
+        ClassPool fork = pool.fork();
+        ClassPool forkOfFork = fork.fork();
+
+        ClassNode first = fork.getWritable(id);
+        ClassNode second = forkOfFork.getWritable(id);
+
+        assertNotSame(first, second);
+        assertNotSame(original, second);
+        assertSame(original, pool.get(id));
+    }
+
+    @Test
+    void serializesSharedClassesConcurrently() throws Exception {
+        ClassPool pool = new ClassPool();
+        ClassNode cls = classNode("p/A");
+        MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC, "m", "()V", null, null);
+
+        // Labels are reset by each visit, so concurrent unsynchronized visits could corrupt the output.
+        for (int i = 0; i < 100; i++) {
+            method.instructions.add(new LabelNode());
+            method.instructions.add(new InsnNode(Opcodes.NOP));
+        }
+
+        method.instructions.add(new InsnNode(Opcodes.RETURN));
+        cls.methods.add(method);
+        pool.add(cls);
+        pool.fork();
+
+        byte[] expected = ClassPool.serialize(cls, new ClassWriter(ClassWriter.COMPUTE_MAXS));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+
+            for (int i = 0; i < 200; i++)
+                results.add(executor.submit(() -> ClassPool.serialize(cls, new ClassWriter(ClassWriter.COMPUTE_MAXS))));
+
+            for (Future<byte[]> result : results)
+                assertArrayEquals(expected, result.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ClassNode classNode(String name) {
+        ClassNode cls = new ClassNode();
+        cls.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+
+        return cls;
+    }
+
+}
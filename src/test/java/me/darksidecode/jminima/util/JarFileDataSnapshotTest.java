@@ -0,0 +1,246 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.util;
+
+import me.darksidecode.jminima.disassembling.LazyClass;
+import me.darksidecode.jminima.disassembling.SimpleJavaDisassembler;
+import me.darksidecode.jminima.phase.EmittedValue;
+import me.darksidecode.jminima.phase.Phase;
+import me.darksidecode.jminima.phase.basic.DisassemblePhase;
+import me.darksidecode.jminima.phase.basic.DisassembleSourcePhase;
+import me.darksidecode.jminima.source.ArchiveClassSource;
+import me.darksidecode.jminima.source.DirectoryClassSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JarFileDataSnapshotTest {
+
+    private static final String TAG = "test";
+
+    private static final int CLASSES = 5;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void restoresClassesAndInjectedEntries() throws IOException {
+        File jar = createJar();
+        Path snapshot = dir.resolve("data.snapshot");
+
+        try (ArchiveClassSource source = new ArchiveClassSource(jar)) {
+            JarFileData data = disassemble(new DisassembleSourcePhase(SimpleJavaDisassembler.class), source);
+            ClassNode modified = data.getClasses().getByName("p/C1");
+            modified.fields.add(new FieldNode(Opcodes.ACC_PRIVATE, "added", "I", null, null));
+            data.getClasses().setModified(modified);
+
+            Map<JarEntry, EntryContent> injected = new HashMap<>();
+            injected.put(new JarEntry("injected.txt"), EntryContent.of("injected".getBytes(StandardCharsets.UTF_8)));
+            data.setInjectedEntries(injected);
+
+            JarFileDataSnapshot.save(data, snapshot, TAG);
+        }
+
+        JarFileData loaded = JarFileDataSnapshot.load(snapshot, TAG);
+
+        try {
+            assertTrue(loaded.getSource() instanceof ArchiveClassSource);
+            assertTrue(loaded.getClasses().isEmpty()); // nothing is disassembled on load
+            assertEquals(classNames(), namesOf(loaded.getLazyClasses()));
+            assertEquals("java/lang/Object", loaded.getHeader("p/C3").getSuperName());
+
+            for (LazyClass cls : loaded.getLazyClasses())
+                assertEquals(cls.getName().equals("p/C1"), cls.isModified());
+
+            loaded.materializeAll(new StringBuilder());
+            ClassNode restored = loaded.getClasses().getByName("p/C1");
+            assertEquals("added", restored.fields.get(restored.fields.size() - 1).name);
+            assertTrue(loaded.getClasses().isModified(loaded.getClasses().idOf(restored)));
+            assertFalse(loaded.getClasses().isModified(loaded.getClasses().idOf(loaded.getClasses().getByName("p/C0"))));
+
+            EntryContent content = loaded.getInjectedEntries().values().iterator().next();
+            assertEquals("injected.txt", loaded.getInjectedEntries().keySet().iterator().next().getName());
+            assertEquals("injected", new String(content.toByteArray(), StandardCharsets.UTF_8));
+        } finally {
+            loaded.getSource().close();
+        }
+    }
+
+    @Test
+    void keepsBytesOfLazyClasses() throws Exception {
+        File jar = createJar();
+        Path snapshot = dir.resolve("data.snapshot");
+
+        try (JarFile jarFile = new JarFile(jar)) {
+            JarFileData data = disassemble(new DisassemblePhase(SimpleJavaDisassembler.class).lazy(true), jarFile);
+            JarFileDataSnapshot.save(data, snapshot, TAG);
+        }
+
+        JarFileData loaded = JarFileDataSnapshot.load(snapshot, TAG);
+
+        try {
+            assertNotNull(loaded.getJarFile()); // opened again the way it was
+            assertEquals(classNames(), namesOf(loaded.getLazyClasses()));
+
+            // Content hashes (e.g. keys of AnalysisCache) stay the same across a save and load.
+            for (LazyClass cls : loaded.getLazyClasses())
+                assertEquals(sha256(classBytes(cls.getName())), cls.getContentHash());
+        } finally {
+            loaded.getJarFile().close();
+        }
+    }
+
+    @Test
+    void rejectsAnotherTag() throws IOException {
+        Path snapshot = saveSnapshot();
+
+        assertThrows(IOException.class, () -> JarFileDataSnapshot.load(snapshot, "other"));
+    }
+
+    @Test
+    void rejectsChangedJars() throws IOException {
+        File jar = createJar();
+        Path snapshot = saveSnapshot(jar);
+
+        assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+        assertThrows(IOException.class, () -> JarFileDataSnapshot.load(snapshot, TAG));
+    }
+
+    @Test
+    void rejectsCorruptedSnapshots() throws IOException {
+        Path snapshot = saveSnapshot();
+
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 4); // no end magic
+        }
+
+        assertThrows(StreamCorruptedException.class, () -> JarFileDataSnapshot.load(snapshot, TAG));
+
+        Files.write(snapshot, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        assertThrows(StreamCorruptedException.class, () -> JarFileDataSnapshot.load(snapshot, TAG));
+    }
+
+    @Test
+    void refusesDataOfOtherSources() throws IOException {
+        Path classes = Files.createDirectories(dir.resolve("classes/p"));
+        Files.write(classes.resolve("C0.class"), classBytes("p/C0"));
+
+        try (DirectoryClassSource source = new DirectoryClassSource(classes.getParent().toFile())) {
+            JarFileData data = disassemble(new DisassembleSourcePhase(SimpleJavaDisassembler.class), source);
+
+            assertThrows(IOException.class, () -> JarFileDataSnapshot.save(data, dir.resolve("data.snapshot"), TAG));
+        }
+
+        assertFalse(Files.exists(dir.resolve("data.snapshot")));
+    }
+
+    private Path saveSnapshot() throws IOException {
+        return saveSnapshot(createJar());
+    }
+
+    private Path saveSnapshot(File jar) throws IOException {
+        Path snapshot = dir.resolve("data.snapshot");
+
+        try (ArchiveClassSource source = new ArchiveClassSource(jar)) {
+            JarFileDataSnapshot.save(disassemble(
+                    new DisassembleSourcePhase(SimpleJavaDisassembler.class), source), snapshot, TAG);
+        }
+
+        return snapshot;
+    }
+
+    private static JarFileData disassemble(Phase<?, JarFileData> phase, Object target) {
+        EmittedValue<? extends JarFileData> result = phase.executeNoExcept(target, null);
+
+        assertNull(result.getError());
+        return result.getValue();
+    }
+
+    private File createJar() throws IOException {
+        File jar = dir.resolve("input.jar").toFile();
+
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()))) {
+            for (String name : classNames()) {
+                out.putNextEntry(new JarEntry(name + ".class"));
+                out.write(classBytes(name));
+            }
+
+            out.putNextEntry(new JarEntry("res.txt"));
+            out.write("resource".getBytes(StandardCharsets.UTF_8));
+        }
+
+        return jar;
+    }
+
+    private static List<String> classNames() {
+        List<String> names = new ArrayList<>();
+
+        for (int i = 0; i < CLASSES; i++)
+            names.add("p/C" + i);
+
+        return names;
+    }
+
+    private static List<String> namesOf(Iterable<LazyClass> classes) {
+        List<String> names = new ArrayList<>();
+
+        for (LazyClass cls : classes)
+            names.add(cls.getName());
+
+        return names;
+    }
+
+    private static byte[] classBytes(String name) {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        writer.visitField(Opcodes.ACC_PRIVATE, "field", "J", null, 42L).visitEnd();
+        writer.visitEnd();
+
+        return writer.toByteArray();
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        StringBuilder hex = new StringBuilder();
+
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes))
+            hex.append(String.format("%02x", b));
+
+        return hex.toString();
+    }
+
+}
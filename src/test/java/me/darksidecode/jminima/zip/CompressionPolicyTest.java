@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.zip;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionPolicyTest {
+
+    @Test
+    void deflatesEverythingByDefault() {
+        CompressionPolicy policy = new CompressionPolicy();
+
+        assertEquals(CompressionPolicy.Decision.DEFLATE, policy.decide(stored("a.txt")));
+        assertEquals(CompressionPolicy.Decision.DEFLATE, policy.decide(new JarEntry("image.png")));
+        assertEquals(Deflater.DEFAULT_COMPRESSION, policy.levelFor(0));
+        assertEquals(Deflater.DEFAULT_COMPRESSION, policy.levelFor(Long.MAX_VALUE));
+    }
+
+    @Test
+    void keepsStoredEntriesStored() {
+        CompressionPolicy policy = new CompressionPolicy().keepSourceMethod(true);
+
+        assertEquals(CompressionPolicy.Decision.KEEP_STORED, policy.decide(stored("a.txt")));
+        assertEquals(CompressionPolicy.Decision.DEFLATE, policy.decide(new JarEntry("a.txt")));
+    }
+
+    @Test
+    void storesCompressedPayloadsByExtension() {
+        CompressionPolicy policy = new CompressionPolicy().storeCompressedPayloads()
+                .storeExtensions(Collections.singleton("BIN"));
+
+        assertEquals(CompressionPolicy.Decision.STORE_COMPRESSED, policy.decide(new JarEntry("img/logo.PNG")));
+        assertEquals(CompressionPolicy.Decision.STORE_COMPRESSED, policy.decide(new JarEntry("lib/nested.jar")));
+        assertEquals(CompressionPolicy.Decision.STORE_COMPRESSED, policy.decide(new JarEntry("data.tar.gz")));
+        assertEquals(CompressionPolicy.Decision.STORE_COMPRESSED, policy.decide(new JarEntry("blob.bin")));
+
+        // Only the extension of the file name itself counts.
+        assertEquals(CompressionPolicy.Decision.DEFLATE, policy.decide(new JarEntry("dir.png/file")));
+        assertEquals(CompressionPolicy.Decision.DEFLATE, policy.decide(new JarEntry("png")));
+        assertEquals(CompressionPolicy.Decision.DEFLATE, policy.decide(new JarEntry("p/C.class")));
+    }
+
+    @Test
+    void picksLevelsBySizeClasses() {
+        CompressionPolicy policy = new CompressionPolicy()
+                .level(1000, Deflater.BEST_SPEED)
+                .level(100000, Deflater.NO_COMPRESSION);
+
+        assertEquals(Deflater.DEFAULT_COMPRESSION, policy.levelFor(-1)); // unknown size
+        assertEquals(Deflater.DEFAULT_COMPRESSION, policy.levelFor(999));
+        assertEquals(Deflater.BEST_SPEED, policy.levelFor(1000));
+        assertEquals(Deflater.BEST_SPEED, policy.levelFor(99999));
+        assertEquals(Deflater.NO_COMPRESSION, policy.levelFor(100000));
+
+        // A single level replaces all size classes.
+        policy.level(Deflater.BEST_COMPRESSION);
+        assertEquals(Deflater.BEST_COMPRESSION, policy.levelFor(0));
+        assertEquals(Deflater.BEST_COMPRESSION, policy.levelFor(100000));
+    }
+
+    @Test
+    void samplesLargeEntriesOnly() {
+        CompressionPolicy policy = new CompressionPolicy().sample(1024, 0.9);
+        byte[] random = new byte[64 * 1024];
+        new Random(42).nextBytes(random);
+        byte[] zeros = new byte[64 * 1024];
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+        try {
+            assertTrue(policy.isIncompressible(random, random.length, deflater));
+            assertFalse(policy.isIncompressible(zeros, zeros.length, deflater));
+            assertFalse(policy.isIncompressible(random, 2047, deflater)); // too small to be sampled
+            assertFalse(new CompressionPolicy().isIncompressible(random, random.length, deflater));
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Test
+    void rejectsInvalidSettings() {
+        CompressionPolicy policy = new CompressionPolicy();
+
+        assertThrows(IllegalArgumentException.class, () -> policy.level(10));
+        assertThrows(IllegalArgumentException.class, () -> policy.level(-1, Deflater.BEST_SPEED));
+        assertThrows(IllegalArgumentException.class, () -> policy.sample(-1, 0.5));
+        assertThrows(IllegalArgumentException.class, () -> policy.sample(1024, 0));
+        assertThrows(IllegalArgumentException.class, () -> policy.sample(1024, 1.5));
+    }
+
+    private static JarEntry stored(String name) {
+        JarEntry entry = new JarEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+
+        return entry;
+    }
+
+}
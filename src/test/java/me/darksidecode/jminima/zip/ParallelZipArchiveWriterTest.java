@@ -0,0 +1,148 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.darksidecode.jminima.zip;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelZipArchiveWriterTest {
+
+    private static final long TIME = 1600000000000L;
+
+    private static final int ENTRIES = 200;
+
+    @Test
+    void writesRecordsInSubmissionOrder() throws IOException {
+        ZipArchive archive = new ZipArchive(ByteBuffer.wrap(write(4)));
+        List<String> names = new ArrayList<>();
+
+        for (ArchiveEntry entry : archive.entries())
+            names.add(entry.getName());
+
+        assertEquals(namesOf(ENTRIES), names);
+        assertEquals(contentOf(ENTRIES - 1), new String(IOUtils.toByteArray(
+                archive.getInputStream(archive.getEntry(nameOf(ENTRIES - 1)))), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void writesSameBytesRegardlessOfThreads() throws IOException {
+        byte[] expected = write(1);
+
+        assertArrayEquals(expected, write(2));
+        assertArrayEquals(expected, write(8));
+    }
+
+    @Test
+    void copiesRawRecordsByteForByte() throws IOException {
+        byte[] original = write(1);
+        ZipArchive source = new ZipArchive(ByteBuffer.wrap(original));
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        try (ParallelZipArchiveWriter writer = new ParallelZipArchiveWriter(
+                new ZipArchiveWriter(Channels.newChannel(copy)), 4)) {
+            for (ArchiveEntry entry : source.entries())
+                writer.write(ZipRecord.copyOf(source, entry));
+        }
+
+        assertArrayEquals(original, copy.toByteArray());
+    }
+
+    @Test
+    void keepsOrderOfRawCopiesBetweenSubmittedRecords() throws IOException {
+        ZipArchive source = new ZipArchive(ByteBuffer.wrap(write(1)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (ParallelZipArchiveWriter writer = new ParallelZipArchiveWriter(
+                new ZipArchiveWriter(Channels.newChannel(out)), 4)) {
+            // Raw copies of odd entries are written while compressed even entries may still be pending.
+            for (int i = 0; i < ENTRIES; i++) {
+                if (i % 2 == 0) {
+                    int index = i;
+                    writer.submit(deflater -> record(index, deflater));
+                } else
+                    writer.write(ZipRecord.copyOf(source, source.getEntry(nameOf(i))));
+            }
+        }
+
+        List<String> names = new ArrayList<>();
+
+        for (ArchiveEntry entry : new ZipArchive(ByteBuffer.wrap(out.toByteArray())).entries())
+            names.add(entry.getName());
+
+        assertEquals(namesOf(ENTRIES), names);
+    }
+
+    @Test
+    void rejectsNonPositiveThreads() {
+        assertThrows(IllegalArgumentException.class, () -> new ParallelZipArchiveWriter(
+                new ZipArchiveWriter(Channels.newChannel(new ByteArrayOutputStream())), 0));
+    }
+
+    private static byte[] write(int threads) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (ParallelZipArchiveWriter writer = new ParallelZipArchiveWriter(
+                new ZipArchiveWriter(Channels.newChannel(out)), threads)) {
+            for (int i = 0; i < ENTRIES; i++) {
+                int index = i;
+                writer.submit(deflater -> record(index, deflater));
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    private static ZipRecord record(int index, Deflater deflater) {
+        return ZipRecord.deflate(new JarEntry(nameOf(index)), TIME,
+                contentOf(index).getBytes(StandardCharsets.UTF_8), deflater);
+    }
+
+    private static List<String> namesOf(int count) {
+        List<String> names = new ArrayList<>();
+
+        for (int i = 0; i < count; i++)
+            names.add(nameOf(i));
+
+        return names;
+    }
+
+    private static String nameOf(int index) {
+        return "entry" + index + ".txt";
+    }
+
+    private static String contentOf(int index) {
+        // Contents of different sizes, so that slower records are likely to complete after faster ones.
+        StringBuilder content = new StringBuilder();
+
+        for (int i = 0; i < (index % 7) * 1000; i++)
+            content.append(index * 31 + i);
+
+        return content.append(index).toString();
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2021 German Vekhorev (DarksideCode)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.darksidecode.jminima.zip;
+
+import me.darksidecode.jminima.util.EntryContent;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZipArchiveUpdaterTest {
+
+    private static final long TIME = 1600000000000L;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replacesEntriesKeepingTheirPositions() throws IOException {
+        Path archive = createArchive("a.txt", "first", "b.txt", "second", "c.txt", "third");
+
+        ZipArchiveUpdater.update(archive, Collections.singletonList(record("b.txt", "replaced")));
+
+        assertEquals(contentsOf("a.txt", "first", "b.txt", "replaced", "c.txt", "third"), read(archive));
+    }
+
+    @Test
+    void appendsNewEntries() throws IOException {
+        Path archive = createArchive("a.txt", "first");
+
+        ZipArchiveUpdater.update(archive, Arrays.asList(record("b.txt", "second"), record("c.txt", "third")));
+
+        assertEquals(contentsOf("a.txt", "first", "b.txt", "second", "c.txt", "third"), read(archive));
+    }
+
+    @Test
+    void neverOverwritesExistingData() throws IOException {
+        Path archive = createArchive("a.txt", "first", "b.txt", "second");
+        byte[] original = Files.readAllBytes(archive);
+
+        ZipArchiveUpdater.update(archive, Collections.singletonList(record("a.txt", "replaced")));
+        byte[] updated = Files.readAllBytes(archive);
+
+        assertTrue(updated.length > original.length);
+        assertArrayEquals(original, Arrays.copyOf(updated, original.length));
+    }
+
+    @Test
+    void keepsOpenedArchivesReadable() throws IOException {
+        Path archive = createArchive("a.txt", "first");
+
+        try (ZipFile opened = new ZipFile(archive.toFile())) {
+            ZipArchiveUpdater.update(archive, Collections.singletonList(record("a.txt", "replaced")));
+
+            try (InputStream stream = opened.getInputStream(opened.getEntry("a.txt"))) {
+                assertEquals("first", new String(IOUtils.toByteArray(stream), StandardCharsets.UTF_8));
+            }
+        }
+
+        assertEquals(contentsOf("a.txt", "replaced"), read(archive));
+    }
+
+    @Test
+    void restoresOriginalArchiveOnFailure() throws IOException {
+        Path archive = createArchive("a.txt", "first");
+        byte[] original = Files.readAllBytes(archive);
+
+        // A content that turns out to be shorter than it claims to be fails the write halfway.
+        EntryContent truncated = new EntryContent() {
+            @Override
+            public long size() {
+                return 100;
+            }
+
+            @Override
+            public ReadableByteChannel open() {
+                return Channels.newChannel(new ByteArrayInputStream(new byte[50]));
+            }
+        };
+
+        List<ZipRecord> records = Arrays.asList(
+                record("b.txt", "second"), ZipRecord.store(new JarEntry("c.bin"), TIME, truncated));
+
+        assertThrows(ZipException.class, () -> ZipArchiveUpdater.update(archive, records));
+        assertArrayEquals(original, Files.readAllBytes(archive));
+    }
+
+    @Test
+    void rejectsDuplicateRecords() throws IOException {
+        Path archive = createArchive("a.txt", "first");
+        byte[] original = Files.readAllBytes(archive);
+
+        assertThrows(ZipException.class, () -> ZipArchiveUpdater.update(archive,
+                Arrays.asList(record("b.txt", "second"), record("b.txt", "third"))));
+        assertArrayEquals(original, Files.readAllBytes(archive));
+    }
+
+    @Test
+    void updatesZip64Archives() throws IOException {
+        // More than 65535 entries can only be described by zip64 end records.
+        int count = 0x10000 + 16;
+        Path archive = dir.resolve("zip64.zip");
+
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive))) {
+            for (int i = 0; i < count; i++) {
+                out.putNextEntry(new ZipEntry("e" + i));
+                out.write(Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+
+        ZipArchiveUpdater.update(archive, Arrays.asList(record("e7", "replaced"), record("new", "added")));
+
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertEquals(count + 1, zip.size());
+            assertEquals("replaced", contentOf(zip, "e7"));
+            assertEquals("added", contentOf(zip, "new"));
+            assertEquals(Integer.toString(count - 1), contentOf(zip, "e" + (count - 1)));
+        }
+
+        // The updated archive is read the same by this library (which also follows zip64 end records).
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            ZipArchive zipArchive = new ZipArchive(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            assertEquals(count + 1, zipArchive.size());
+            assertEquals("replaced", new String(IOUtils.toByteArray(
+                    zipArchive.getInputStream(zipArchive.getEntry("e7"))), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void recoversInterruptedUpdates() throws IOException {
+        Path archive = createArchive("a.txt", "first");
+        byte[] original = Files.readAllBytes(archive);
+
+        // A crash after appending records, but before the new central directory has been written.
+        ZipArchiveUpdater.writeJournal(ZipArchiveUpdater.journalOf(archive), original.length);
+        Files.write(archive, new byte[100], StandardOpenOption.APPEND);
+
+        assertTrue(ZipArchiveUpdater.recover(archive));
+        assertArrayEquals(original, Files.readAllBytes(archive));
+        assertFalse(Files.exists(ZipArchiveUpdater.journalOf(archive)));
+        assertFalse(ZipArchiveUpdater.recover(archive));
+    }
+
+    @Test
+    void keepsCompletedUpdatesOnRecovery() throws IOException {
+        Path archive = createArchive("a.txt", "first");
+        long originalSize = Files.size(archive);
+        ZipArchiveUpdater.update(archive, Collections.singletonList(record("b.txt", "second")));
+
+        // A crash after the new central directory has been written, but before the journal has been deleted.
+        ZipArchiveUpdater.writeJournal(ZipArchiveUpdater.journalOf(archive), originalSize);
+
+        assertFalse(ZipArchiveUpdater.recover(archive));
+        assertEquals(contentsOf("a.txt", "first", "b.txt", "second"), read(archive));
+        assertFalse(Files.exists(ZipArchiveUpdater.journalOf(archive)));
+    }
+
+    @Test
+    void recoversBeforeUpdating() throws IOException {
+        Path archive = createArchive("a.txt", "first");
+        ZipArchiveUpdater.writeJournal(ZipArchiveUpdater.journalOf(archive), Files.size(archive));
+        Files.write(archive, new byte[100], StandardOpenOption.APPEND);
+
+        ZipArchiveUpdater.update(archive, Collections.singletonList(record("b.txt", "second")));
+
+        assertEquals(contentsOf("a.txt", "first", "b.txt", "second"), read(archive));
+        assertFalse(Files.exists(ZipArchiveUpdater.journalOf(archive)));
+    }
+
+    @Test
+    void compactsStaleRecords() throws IOException {
+        Path archive = createArchive("a.txt", "first", "b.txt", "second");
+        long staleBytes = 0;
+
+        for (int i = 0; i < 10; i++)
+            staleBytes = ZipArchiveUpdater.update(archive, Collections.singletonList(record("b.txt", "update " + i)));
+
+        long updatedSize = Files.size(archive);
+        assertTrue(staleBytes > 0);
+
+        ZipArchiveUpdater.compact(archive, 2);
+
+        assertEquals(contentsOf("a.txt", "first", "b.txt", "update 9"), read(archive));
+        assertTrue(Files.size(archive) < updatedSize);
+    }
+
+    private Path createArchive(String... namesAndContents) throws IOException {
+        Path archive = dir.resolve("test.zip");
+
+        try (ZipArchiveWriter writer = new ZipArchiveWriter(FileChannel.open(archive,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            for (int i = 0; i < namesAndContents.length; i += 2)
+                writer.write(record(namesAndContents[i], namesAndContents[i + 1]));
+        }
+
+        return archive;
+    }
+
+    private static ZipRecord record(String name, String content) {
+        return ZipRecord.deflate(new JarEntry(name), TIME,
+                content.getBytes(StandardCharsets.UTF_8), new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    }
+
+    private static Map<String, String> contentsOf(String... namesAndContents) {
+        Map<String, String> contents = new LinkedHashMap<>();
+
+        for (int i = 0; i < namesAndContents.length; i += 2)
+            contents.put(namesAndContents[i], namesAndContents[i + 1]);
+
+        return contents;
+    }
+
+    private static Map<String, String> read(Path archive) throws IOException {
+        // Entries in the order of the central directory.
+        Map<String, String> contents = new LinkedHashMap<>();
+
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            for (ZipEntry entry : Collections.list(zip.entries()))
+                contents.put(entry.getName(), contentOf(zip, entry.getName()));
+        }
+
+        return contents;
+    }
+
+    private static String contentOf(ZipFile zip, String name) throws IOException {
+        try (InputStream stream = zip.getInputStream(zip.getEntry(name))) {
+            return new String(IOUtils.toByteArray(stream), StandardCharsets.UTF_8);
+        }
+    }
+
+}